@@ -0,0 +1,138 @@
+package simpledb.index.bplus;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.record.FreeSpaceMap;
+import simpledb.record.RID;
+import simpledb.record.RecordFile;
+import simpledb.tx.Transaction;
+
+/**
+ * Compares B+-tree index access with sequential scans of a record
+ * file. The benchmark stores records with distinct integer keys in
+ * random order, builds an index on the keys twice, once by bulk
+ * loading the sorted entries and once by inserting them in record
+ * order, and then times point lookups and range scans through the
+ * index against scans of the whole file.
+ *
+ * Usage: java simpledb.index.bplus.BPlusBench dir [records] [lookups] [range]
+ */
+public class BPlusBench {
+    private static final int RECORD_LENGTH = 64;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: BPlusBench dir [records] [lookups] [range]");
+            return;
+        }
+        int records = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+        int lookups = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        int range = (args.length > 3) ? Integer.parseInt(args[3]) : 100;
+
+        FileMgr fm = new FileMgr(new File(args[0], "bplusbench" + System.nanoTime()), 4096);
+        LogMgr lm = new LogMgr(fm, "bplusbench.log");
+        BufferMgr bm = new BufferMgr(fm, lm, 256);
+        Random rand = new Random(42);
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < records; i++)
+            keys.add(i);
+        Collections.shuffle(keys, rand);
+        Transaction tx = new Transaction(fm, lm, bm);
+        RecordFile rf = new RecordFile(tx, new FreeSpaceMap("data", fm.blockSize()));
+        RID[] rids = new RID[records];
+        for (int key : keys)
+            rids[key] = rf.insert(record(key));
+        rf.close();
+        tx.commit();
+
+        tx = new Transaction(fm, lm, bm);
+        long start = System.nanoTime();
+        List<Map.Entry<Integer, RID>> sorted = new ArrayList<>();
+        for (int key = 0; key < records; key++)
+            sorted.add(new AbstractMap.SimpleEntry<>(key, rids[key]));
+        BPlusTree<Integer> index = BPlusTree.bulkLoad(tx, "bulk.idx", KeyType.INT, sorted.iterator());
+        tx.commit();
+        double bulk = micros(records, start);
+
+        tx = new Transaction(fm, lm, bm);
+        start = System.nanoTime();
+        BPlusTree<Integer> inserted = new BPlusTree<>(tx, "insert.idx", KeyType.INT);
+        for (int key : keys)
+            inserted.insert(key, rids[key]);
+        tx.commit();
+        double insert = micros(records, start);
+        System.out.printf("%d records: bulk load %.2f us/entry (%d blocks), insert %.2f us/entry (%d blocks)%n",
+                records, bulk, fm.length("bulk.idx"), insert, fm.length("insert.idx"));
+
+        tx = new Transaction(fm, lm, bm);
+        rf = new RecordFile(tx, new FreeSpaceMap("data", fm.blockSize()));
+        index = new BPlusTree<>(tx, "bulk.idx", KeyType.INT);
+        long check = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++)
+            for (RID rid : index.lookup(rand.nextInt(records)))
+                check += keyOf(rf.get(rid));
+        double indexLookup = micros(lookups, start);
+
+        int scanLookups = Math.max(1, lookups / 10);
+        start = System.nanoTime();
+        for (int i = 0; i < scanLookups; i++) {
+            int key = rand.nextInt(records);
+            for (RID rid = rf.next(null); rid != null; rid = rf.next(rid))
+                if (keyOf(rf.get(rid)) == key) {
+                    check += key;
+                    break;
+                }
+        }
+        double scanLookup = micros(scanLookups, start);
+        System.out.printf("point lookup: index %.1f us, scan %.1f us%n", indexLookup, scanLookup);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int lo = rand.nextInt(Math.max(1, records - range));
+            BPlusScan<Integer> s = index.scan(lo, lo + range - 1);
+            while (s.next())
+                check += keyOf(rf.get(s.rid()));
+            s.close();
+        }
+        double indexRange = micros(lookups, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < scanLookups; i++) {
+            int lo = rand.nextInt(Math.max(1, records - range));
+            for (RID rid = rf.next(null); rid != null; rid = rf.next(rid)) {
+                int key = keyOf(rf.get(rid));
+                if (key >= lo && key < lo + range)
+                    check += key;
+            }
+        }
+        double scanRange = micros(scanLookups, start);
+        rf.close();
+        tx.commit();
+        System.out.printf("range of %d keys: index %.1f us, scan %.1f us  (%d)%n",
+                range, indexRange, scanRange, check);
+    }
+
+    private static byte[] record(int key) {
+        return ByteBuffer.allocate(RECORD_LENGTH).putInt(key).array();
+    }
+
+    private static int keyOf(byte[] rec) {
+        return ByteBuffer.wrap(rec).getInt();
+    }
+
+    private static double micros(int ops, long start) {
+        return (System.nanoTime() - start) / 1e3 / ops;
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb.index.bplus;
+
+import java.util.Arrays;
+
+import simpledb.file.Page;
+import simpledb.record.RID;
+
+/**
+ * The layout of a B+-tree node in a block.
+ * The header holds the node's level (0 for a leaf), its number of
+ * entries, and a link: the next leaf for a leaf, or 0 if it is the
+ * last one, and the leftmost child for a directory node.
+ * A leaf entry is a key and the RID it indexes. A directory entry
+ * is a key and the child to its right; every key in that child is
+ * at least the entry's key, and every key in the child to its left
+ * is at most the entry's key.
+ * A block of zeros is an empty leaf.
+ * The methods read and modify pages, either a buffer page
+ * (read under its latch) or a private copy of one.
+ */
+class BPlusNode<K> {
+    static final int LEVEL = 0;
+    static final int COUNT = Integer.BYTES;
+    static final int LINK = 2 * Integer.BYTES;
+    static final int HEADER = 3 * Integer.BYTES;
+
+    private final KeyType<K> type;
+    private final int blocksize;
+    private final int entrySize;
+    private final int capacity;
+
+    BPlusNode(KeyType<K> type, int blocksize) {
+        this.type = type;
+        this.blocksize = blocksize;
+        this.entrySize = type.size() + 2 * Integer.BYTES;
+        this.capacity = (blocksize - HEADER) / entrySize;
+    }
+
+    /**
+     * Returns the largest number of entries a node can hold.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns a private copy of a node, with room for one entry
+     * past the capacity so that an overfull node can be split.
+     */
+    Page copy(Page p) {
+        return new Page(Arrays.copyOf(p.getRegion(0, blocksize), blocksize + entrySize));
+    }
+
+    /**
+     * Returns an empty private node.
+     */
+    Page empty() {
+        return new Page(new byte[blocksize + entrySize]);
+    }
+
+    int level(Page p) {
+        return p.getInt(LEVEL);
+    }
+
+    int count(Page p) {
+        return p.getInt(COUNT);
+    }
+
+    int link(Page p) {
+        return p.getInt(LINK);
+    }
+
+    K key(Page p, int i) {
+        return type.get(p, keyPos(i));
+    }
+
+    int compare(Page p, int i, K key) {
+        return type.compare(p, keyPos(i), key);
+    }
+
+    RID rid(Page p, int i) {
+        return new RID(p.getInt(valuePos(i)), p.getInt(valuePos(i) + Integer.BYTES));
+    }
+
+    /**
+     * Returns the child of a directory node at the specified position,
+     * where position 0 is the leftmost child.
+     */
+    int child(Page p, int i) {
+        return (i == 0) ? link(p) : p.getInt(valuePos(i - 1));
+    }
+
+    /**
+     * Returns the number of entries whose key is less than the
+     * given key, which is both the position of the first entry not
+     * less than the key and the position of the child to search for it.
+     */
+    int countLess(Page p, K key) {
+        int lo = 0, hi = count(p);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(p, mid, key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the child of a directory node that can hold the key.
+     */
+    int childFor(Page p, K key) {
+        return child(p, countLess(p, key));
+    }
+
+    /**
+     * Returns the offset just past the node's last entry.
+     */
+    int end(Page p) {
+        return keyPos(count(p));
+    }
+
+    void setHeader(Page p, int level, int count, int link) {
+        p.setInt(LEVEL, level);
+        p.setInt(COUNT, count);
+        p.setInt(LINK, link);
+    }
+
+    void setLink(Page p, int link) {
+        p.setInt(LINK, link);
+    }
+
+    /**
+     * Inserts an entry at the specified position of a private copy,
+     * shifting the later entries right.
+     * The copy must have room for one entry past the capacity.
+     */
+    void insert(Page p, int i, K key, int v1, int v2) {
+        int count = count(p);
+        if (i < count)
+            p.setRegion(keyPos(i + 1), p.getRegion(keyPos(i), (count - i) * entrySize));
+        type.put(p, keyPos(i), key);
+        p.setInt(valuePos(i), v1);
+        p.setInt(valuePos(i) + Integer.BYTES, v2);
+        p.setInt(COUNT, count + 1);
+    }
+
+    /**
+     * Removes the entry at the specified position of a private copy,
+     * shifting the later entries left.
+     */
+    void remove(Page p, int i) {
+        int count = count(p);
+        if (i < count - 1)
+            p.setRegion(keyPos(i), p.getRegion(keyPos(i + 1), (count - i - 1) * entrySize));
+        p.setInt(COUNT, count - 1);
+    }
+
+    /**
+     * Copies entries from one page to another.
+     */
+    void copyEntries(Page from, int start, Page to, int dest, int n) {
+        to.setRegion(keyPos(dest), from.getRegion(keyPos(start), n * entrySize));
+    }
+
+    /**
+     * Returns the first int value of the entry at the specified
+     * position: a RID's block number, or a directory entry's child.
+     */
+    int value(Page p, int i) {
+        return p.getInt(valuePos(i));
+    }
+
+    /**
+     * Returns the offset of the entry at the specified position.
+     */
+    int keyPos(int i) {
+        return HEADER + i * entrySize;
+    }
+
+    private int valuePos(int i) {
+        return keyPos(i) + type.size();
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.index.bplus;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.record.RID;
+import simpledb.tx.Transaction;
+
+/**
+ * A scan of the entries of a B+-tree in key order, up to an
+ * optional upper bound. The scan follows the links between leaves;
+ * each leaf is SLocked and copied in a single read, so the scan
+ * holds no pins between calls.
+ */
+public class BPlusScan<K> {
+    private Transaction tx;
+    private String filename;
+    private BPlusNode<K> nodes;
+    private K hi;
+    private Page leaf;
+    private int pos;
+    private boolean done = false;
+
+    /**
+     * Create a scan starting at the first entry of the leaf that is
+     * not less than the lower bound. The leaf must be pinned;
+     * the scan unpins it.
+     */
+    BPlusScan(Transaction tx, String filename, BPlusNode<K> nodes, BlockId blk, K lo, K hi) {
+        this.tx = tx;
+        this.filename = filename;
+        this.nodes = nodes;
+        this.hi = hi;
+        this.leaf = tx.read(blk, nodes::copy);
+        this.pos = ((lo == null) ? 0 : nodes.countLess(leaf, lo)) - 1;
+        tx.unpin(blk);
+    }
+
+    /**
+     * Move to the next entry in the range.
+     *
+     * @return false if there are no more entries
+     */
+    public boolean next() {
+        if (done)
+            return false;
+        pos++;
+        while (pos >= nodes.count(leaf)) {
+            int next = nodes.link(leaf);
+            if (next == 0) {
+                close();
+                return false;
+            }
+            BlockId blk = new BlockId(filename, next);
+            tx.pin(blk);
+            leaf = tx.read(blk, nodes::copy);
+            tx.unpin(blk);
+            pos = 0;
+        }
+        if (hi != null && nodes.compare(leaf, pos, hi) > 0) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the key of the current entry.
+     */
+    public K key() {
+        return nodes.key(leaf, pos);
+    }
+
+    /**
+     * Return the RID of the current entry.
+     */
+    public RID rid() {
+        return nodes.rid(leaf, pos);
+    }
+
+    /**
+     * Close the scan.
+     */
+    public void close() {
+        done = true;
+        leaf = null;
+    }
+}
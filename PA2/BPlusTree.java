@@ -0,0 +1,409 @@
+package simpledb.index.bplus;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.record.RID;
+import simpledb.tx.PageWriter;
+import simpledb.tx.Transaction;
+
+/**
+ * A B+-tree index stored in a file, mapping keys to the RIDs
+ * of the records that hold them. Duplicate keys are allowed.
+ * Key features:
+ * - The nodes are blocks accessed through the transaction, so
+ * changes are locked, logged and rolled back like any other update
+ * - The root is always block 0; when it splits, its contents move
+ * to a new block and it becomes the parent of the two halves
+ * - Searches descend the directory without transaction locks,
+ * reading each node under its buffer latch and noting its version.
+ * Only the leaf is locked, unless a node is being modified by another
+ * transaction, which the reader then waits for; if a node on the
+ * path changed before the leaf's lock was granted, the descent
+ * starts over. Directory nodes are
+ * therefore never locked by readers, or by inserts that do not split
+ * - An insert that splits a leaf instead descends again with every
+ * node on the path locked, splitting nodes on the way back up
+ * - Deletions do not merge nodes, as in SimpleDB's own B-tree index
+ * - A tree can be built from sorted input by {@link #bulkLoad}
+ */
+public class BPlusTree<K> {
+    private static final int ROOT = 0;
+
+    private Transaction tx;
+    private String filename;
+    private KeyType<K> type;
+    private BPlusNode<K> nodes;
+
+    /**
+     * Open the B+-tree stored in the specified file,
+     * creating an empty tree if the file is empty.
+     * Transactions opening a new file at once create only one root.
+     *
+     * @param tx       the calling transaction
+     * @param filename the name of the index file
+     * @param type     the type of the keys
+     */
+    public BPlusTree(Transaction tx, String filename, KeyType<K> type) {
+        this.tx = tx;
+        this.filename = filename;
+        this.type = type;
+        this.nodes = new BPlusNode<>(type, tx.blockSize());
+        tx.appendIfEmpty(filename); // a zeroed block is an empty leaf
+    }
+
+    /**
+     * Build a B+-tree in an empty file from entries sorted by key.
+     * Nodes are filled completely and written bottom-up, one block
+     * at a time; only the root is logged, since the other blocks are
+     * new and become reachable only through it.
+     *
+     * @param tx       the calling transaction
+     * @param filename the name of the index file, which must be empty
+     * @param type     the type of the keys
+     * @param sorted   the entries, in non-decreasing key order
+     * @return the new tree
+     */
+    public static <K> BPlusTree<K> bulkLoad(Transaction tx, String filename, KeyType<K> type,
+            Iterator<Map.Entry<K, RID>> sorted) {
+        if (tx.size(filename) != 0)
+            throw new IllegalStateException("index file " + filename + " is not empty");
+        BPlusTree<K> tree = new BPlusTree<>(tx, filename, type);
+        tree.load(sorted);
+        return tree;
+    }
+
+    /**
+     * Add an entry for the specified key and RID.
+     *
+     * @param key the key
+     * @param rid the RID of the record holding the key
+     */
+    public void insert(K key, RID rid) {
+        BlockId leaf = findLeaf(key);
+        try {
+            Page p = tx.read(leaf, nodes::copy);
+            if (nodes.count(p) < nodes.capacity()) {
+                int i = nodes.countLess(p, key);
+                nodes.insert(p, i, key, rid.blockNumber(), rid.slot());
+                writeFrom(leaf, p, i);
+                return;
+            }
+        } finally {
+            tx.unpin(leaf);
+        }
+        Split split = insertLocked(ROOT, key, rid.blockNumber(), rid.slot());
+        if (split != null)
+            splitRoot(split);
+    }
+
+    /**
+     * Remove the entry for the specified key and RID.
+     *
+     * @param key the key
+     * @param rid the RID of the record holding the key
+     * @return false if there is no such entry
+     */
+    public boolean delete(K key, RID rid) {
+        BlockId blk = findLeaf(key);
+        while (true) {
+            Page p = tx.read(blk, nodes::copy);
+            for (int i = nodes.countLess(p, key); i < nodes.count(p); i++) {
+                if (nodes.compare(p, i, key) > 0) {
+                    tx.unpin(blk);
+                    return false;
+                }
+                if (nodes.rid(p, i).equals(rid)) {
+                    nodes.remove(p, i);
+                    writeFrom(blk, p, i);
+                    tx.unpin(blk);
+                    return true;
+                }
+            }
+            tx.unpin(blk);
+            int next = nodes.link(p);
+            if (next == 0)
+                return false;
+            blk = new BlockId(filename, next);
+            tx.pin(blk);
+        }
+    }
+
+    /**
+     * Return the RIDs of the entries with the specified key.
+     *
+     * @param key the key
+     * @return the RIDs, in index order
+     */
+    public List<RID> lookup(K key) {
+        List<RID> rids = new ArrayList<>();
+        BPlusScan<K> scan = scan(key, key);
+        while (scan.next())
+            rids.add(scan.rid());
+        scan.close();
+        return rids;
+    }
+
+    /**
+     * Return a scan of the entries whose keys are in the specified
+     * range, in key order. The leaves the scan visits are SLocked.
+     *
+     * @param lo the smallest key, or null for no lower bound
+     * @param hi the largest key, or null for no upper bound
+     * @return a scan positioned before the first entry
+     */
+    public BPlusScan<K> scan(K lo, K hi) {
+        BlockId leaf = (lo == null) ? leftmostLeaf() : findLeaf(lo);
+        return new BPlusScan<>(tx, filename, nodes, leaf, lo, hi);
+    }
+
+    /**
+     * Find the leaf in which a search for the key starts, and return
+     * it pinned and SLocked. The directory is read with
+     * {@link Transaction#peek}, which locks a node only if another
+     * transaction is modifying it; the version of each node is noted
+     * before it is read, and the descent is repeated if any of them
+     * changed by the time the leaf is locked.
+     */
+    private BlockId findLeaf(K key) {
+        while (true) {
+            List<BlockId> path = new ArrayList<>();
+            List<Long> versions = new ArrayList<>();
+            BlockId blk = new BlockId(filename, ROOT);
+            while (true) {
+                path.add(blk);
+                versions.add(tx.version(blk));
+                tx.pin(blk);
+                int child = tx.peek(blk, p -> (nodes.level(p) == 0) ? -1 : nodes.childFor(p, key));
+                if (child < 0)
+                    break;
+                tx.unpin(blk);
+                blk = new BlockId(filename, child);
+            }
+            tx.read(blk, nodes::level); // SLock the leaf
+            if (unchanged(path, versions))
+                return blk;
+            tx.unpin(blk);
+        }
+    }
+
+    private BlockId leftmostLeaf() {
+        BlockId blk = new BlockId(filename, ROOT);
+        tx.pin(blk);
+        while (true) {
+            int child = tx.read(blk, p -> (nodes.level(p) == 0) ? -1 : nodes.child(p, 0));
+            if (child < 0)
+                return blk;
+            tx.unpin(blk);
+            blk = new BlockId(filename, child);
+            tx.pin(blk);
+        }
+    }
+
+    private boolean unchanged(List<BlockId> path, List<Long> versions) {
+        for (int i = 0; i < path.size(); i++)
+            if (tx.version(path.get(i)) != versions.get(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Insert an entry into the subtree rooted at the specified block,
+     * locking every node on the way down.
+     * Returns the new right sibling if the node had to be split.
+     */
+    private Split insertLocked(int blknum, K key, int v1, int v2) {
+        BlockId blk = new BlockId(filename, blknum);
+        tx.pin(blk);
+        try {
+            Page p = tx.read(blk, nodes::copy);
+            int i = nodes.countLess(p, key);
+            if (nodes.level(p) > 0) {
+                Split split = insertLocked(nodes.child(p, i), key, v1, v2);
+                if (split == null)
+                    return null;
+                key = split.key;
+                v1 = split.blknum;
+                v2 = 0;
+            }
+            nodes.insert(p, i, key, v1, v2);
+            if (nodes.count(p) <= nodes.capacity()) {
+                writeFrom(blk, p, i);
+                return null;
+            }
+            return split(blk, p);
+        } finally {
+            tx.unpin(blk);
+        }
+    }
+
+    /**
+     * Split an overfull node, whose private copy holds one entry
+     * more than a block can, into itself and a new right sibling.
+     * A leaf keeps the lower half of the entries and the sibling's
+     * first key is copied up; a directory node's middle key moves up,
+     * and the child to its right becomes the sibling's leftmost child.
+     */
+    private Split split(BlockId blk, Page p) {
+        int level = nodes.level(p);
+        int count = nodes.count(p);
+        int mid = count / 2;
+        K sep = nodes.key(p, mid);
+        BlockId sibling = tx.append(filename);
+        Page right = nodes.empty();
+        if (level == 0) {
+            nodes.setHeader(right, 0, count - mid, nodes.link(p));
+            nodes.copyEntries(p, mid, right, 0, count - mid);
+            nodes.setHeader(p, 0, mid, sibling.number());
+        } else {
+            nodes.setHeader(right, level, count - mid - 1, nodes.value(p, mid));
+            nodes.copyEntries(p, mid + 1, right, 0, count - mid - 1);
+            nodes.setHeader(p, level, mid, nodes.link(p));
+        }
+        tx.pin(sibling);
+        write(sibling, right, 0, false);
+        tx.unpin(sibling);
+        write(blk, p, BPlusNode.COUNT, true);
+        return new Split(sep, sibling.number());
+    }
+
+    /**
+     * Move the split root into a new block and make the root
+     * the parent of it and its new sibling.
+     */
+    private void splitRoot(Split split) {
+        BlockId root = new BlockId(filename, ROOT);
+        BlockId left = tx.append(filename);
+        tx.pin(root);
+        tx.pin(left);
+        Page p = tx.read(root, nodes::copy);
+        write(left, p, 0, false);
+        Page newRoot = nodes.empty();
+        nodes.setHeader(newRoot, nodes.level(p) + 1, 0, left.number());
+        nodes.insert(newRoot, 0, split.key, split.blknum, 0);
+        write(root, newRoot, 0, true);
+        tx.unpin(left);
+        tx.unpin(root);
+    }
+
+    /**
+     * Fill the empty tree from sorted entries. Each leaf is written
+     * once the next one has been allocated, so that its link can be
+     * set; the first key and block of every node are kept to build
+     * the level above. The top node is written into the root block.
+     */
+    private void load(Iterator<Map.Entry<K, RID>> sorted) {
+        List<K> keys = new ArrayList<>();
+        List<Integer> blocks = new ArrayList<>();
+        Page leaf = nodes.empty();
+        BlockId blk = null; // allocated once a second leaf is needed
+        K last = null;
+        while (sorted.hasNext()) {
+            Map.Entry<K, RID> e = sorted.next();
+            if (last != null && type.compare(last, e.getKey()) > 0)
+                throw new IllegalArgumentException("bulk load input is not sorted at key " + e.getKey());
+            last = e.getKey();
+            if (nodes.count(leaf) == nodes.capacity()) {
+                if (blk == null)
+                    blk = tx.append(filename);
+                BlockId next = tx.append(filename);
+                writeLeaf(leaf, blk, next.number(), keys, blocks);
+                leaf = nodes.empty();
+                blk = next;
+            }
+            nodes.insert(leaf, nodes.count(leaf), e.getKey(), e.getValue().blockNumber(), e.getValue().slot());
+        }
+        if (blk == null) { // everything fits in the root
+            writeNew(new BlockId(filename, ROOT), leaf, true);
+            return;
+        }
+        writeLeaf(leaf, blk, 0, keys, blocks);
+        buildDirectory(keys, blocks);
+    }
+
+    private void writeLeaf(Page leaf, BlockId blk, int next, List<K> keys, List<Integer> blocks) {
+        nodes.setLink(leaf, next);
+        keys.add(nodes.key(leaf, 0));
+        blocks.add(blk.number());
+        writeNew(blk, leaf, false);
+    }
+    /**
+     * Build the directory levels above the given nodes, grouping as
+     * many children as a node holds, until one node can hold them all;
+     * that node is written into the root block.
+     */
+    private void buildDirectory(List<K> keys, List<Integer> blocks) {
+        int level = 1;
+        int fanout = nodes.capacity() + 1;
+        while (blocks.size() > fanout) {
+            List<K> upperKeys = new ArrayList<>();
+            List<Integer> upperBlocks = new ArrayList<>();
+            for (int start = 0; start < blocks.size(); start += fanout) {
+                int end = Math.min(start + fanout, blocks.size());
+                BlockId blk = tx.append(filename);
+                writeNew(blk, directoryNode(level, keys, blocks, start, end), false);
+                upperKeys.add(keys.get(start));
+                upperBlocks.add(blk.number());
+            }
+            keys = upperKeys;
+            blocks = upperBlocks;
+            level++;
+        }
+        writeNew(new BlockId(filename, ROOT), directoryNode(level, keys, blocks, 0, blocks.size()), true);
+    }
+
+    private Page directoryNode(int level, List<K> keys, List<Integer> blocks, int start, int end) {
+        Page p = nodes.empty();
+        nodes.setHeader(p, level, 0, blocks.get(start));
+        for (int i = start + 1; i < end; i++)
+            nodes.insert(p, i - start - 1, keys.get(i), blocks.get(i), 0);
+        return p;
+    }
+
+    private void writeNew(BlockId blk, Page p, boolean okToLog) {
+        tx.pin(blk);
+        write(blk, p, 0, okToLog);
+        tx.unpin(blk);
+    }
+
+    /**
+     * Write a node's private copy back to its block, from the
+     * specified offset to the end of its entries.
+     */
+    private void write(BlockId blk, Page p, int from, boolean okToLog) {
+        int end = nodes.end(p);
+        tx.pageWriter(blk).setRegion(from, p.getRegion(from, end - from)).apply(okToLog);
+    }
+
+    /**
+     * Write back the count of a node's private copy and its entries
+     * from the specified position on, which are the only parts an
+     * insertion or removal at that position changes.
+     */
+    private void writeFrom(BlockId blk, Page p, int i) {
+        int from = nodes.keyPos(i);
+        int end = nodes.end(p);
+        PageWriter w = tx.pageWriter(blk).setInt(BPlusNode.COUNT, nodes.count(p));
+        if (end > from)
+            w.setRegion(from, p.getRegion(from, end - from));
+        w.apply(true);
+    }
+
+    /**
+     * The result of splitting a node: the key that separates
+     * it from its new sibling, and the sibling's block.
+     */
+    private class Split {
+        final K key;
+        final int blknum;
+
+        Split(K key, int blknum) {
+            this.key = key;
+            this.blknum = blknum;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb.index.bplus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.record.RID;
+import simpledb.tx.Transaction;
+import simpledb.tx.TransactionRunner;
+import simpledb.tx.concurrency.LockAbortException;
+
+/**
+ * Checks concurrent use of a B+-tree.
+ * Transactions that open a new index file at the same time must
+ * create a single root between them. Then threads insert keys in
+ * their own transactions, splitting nodes while other threads
+ * descend without locks, and every key must be found afterwards,
+ * with a scan returning them all in order. Finally, a rolled-back
+ * insert that splits nodes must leave the tree as it was.
+ *
+ * Usage: java simpledb.index.bplus.BPlusTreeTest
+ */
+public class BPlusTreeTest {
+    private static final int THREADS = 8;
+    private static final int INSERTS = 200; // per thread
+    private static final int ROUNDS = 200; // of opening a new file
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("bplustreetest" + System.nanoTime()), 128);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 64);
+        for (int round = 0; round < ROUNDS; round++)
+            openAtOnce(fm, lm, bm, "new" + round + ".idx");
+
+        TransactionRunner runner = new TransactionRunner(fm, lm, bm);
+
+        List<CompletableFuture<Void>> inserters = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            inserters.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < INSERTS; i++) {
+                    int key = i * THREADS + thread, slot = i;
+                    runner.run(t2 -> {
+                        new BPlusTree<>(t2, "conc.idx", KeyType.INT).insert(key, new RID(thread, slot));
+                        return null;
+                    });
+                }
+            }));
+        }
+        CompletableFuture.allOf(inserters.toArray(new CompletableFuture<?>[0])).get(120, TimeUnit.SECONDS);
+        Transaction tx = new Transaction(fm, lm, bm);
+        BPlusTree<Integer> tree = new BPlusTree<>(tx, "conc.idx", KeyType.INT);
+        for (int key = 0; key < THREADS * INSERTS; key++) {
+            List<RID> rids = tree.lookup(key);
+            check(rids.size() == 1 && rids.get(0).equals(new RID(key % THREADS, key / THREADS)),
+                    "lookup of " + key + " returned " + rids);
+        }
+        check(scan(tree).size() == THREADS * INSERTS, "scan missed entries");
+        tx.commit();
+
+        tx = new Transaction(fm, lm, bm);
+        tree = new BPlusTree<>(tx, "conc.idx", KeyType.INT);
+        for (int key = 0; key < 500; key++)
+            tree.insert(-key - 1, new RID(0, key));
+        tx.rollback();
+        tx = new Transaction(fm, lm, bm);
+        tree = new BPlusTree<>(tx, "conc.idx", KeyType.INT);
+        List<Integer> keys = scan(tree);
+        check(keys.size() == THREADS * INSERTS && keys.get(0) == 0, "rolled-back inserts remain");
+        tx.commit();
+        System.out.println("BPlusTreeTest passed");
+    }
+
+    /**
+     * Opens a new index file in several transactions at once
+     * and checks that they created a single root between them.
+     * A transaction that Wait-Die aborts is rolled back.
+     */
+    private static void openAtOnce(FileMgr fm, LogMgr lm, BufferMgr bm, String filename) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<CompletableFuture<Void>> openers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Transaction tx = new Transaction(fm, lm, bm);
+            openers.add(CompletableFuture.runAsync(() -> {
+                await(start);
+                try {
+                    new BPlusTree<>(tx, filename, KeyType.INT);
+                    tx.commit();
+                } catch (LockAbortException e) {
+                    tx.rollback();
+                }
+            }));
+        }
+        CompletableFuture.allOf(openers.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        check(fm.length(filename) == 1, "concurrent openers created " + fm.length(filename) + " blocks");
+    }
+
+    /**
+     * Returns the keys of the whole tree in scan order,
+     * checking that the order is non-decreasing.
+     */
+    private static List<Integer> scan(BPlusTree<Integer> tree) {
+        List<Integer> keys = new ArrayList<>();
+        BPlusScan<Integer> s = tree.scan(null, null);
+        while (s.next()) {
+            check(keys.isEmpty() || keys.get(keys.size() - 1) <= s.key(), "scan out of order at " + s.key());
+            keys.add(s.key());
+        }
+        s.close();
+        return keys;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -0,0 +1,239 @@
+package simpledb.tx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.file.BlockId;
+
+/**
+ * Runs units of work whose read and write sets are declared up front,
+ * grouping them into batches of mutually non-conflicting work.
+ * Key features:
+ * - Two units conflict if one writes a block that the other reads or
+ * writes
+ * - Work is batched in submission order: a unit joins the current batch
+ * unless it conflicts with a unit already in it, or with an earlier unit
+ * that was deferred, so conflicting units always run in the order they
+ * were submitted
+ * - The units of a batch run in parallel on a pool of worker threads;
+ * the next batch starts once every unit of the current one has finished
+ * - Each unit runs through a {@link TransactionRunner}, so it still
+ * locks every block it touches; the declared sets only decide what may
+ * run together. Conflicts the scheduler knows about are resolved by
+ * waiting for the next batch instead of by a Wait-Die abort, and an
+ * access outside the declared sets is still safe, at worst aborting
+ * and being retried by the runner
+ * - Counts batches and units of work
+ */
+public class BatchScheduler {
+    private static final long IDLE_POLL = 100; // milliseconds
+
+    private TransactionRunner runner;
+    private int maxBatchSize;
+    private ExecutorService workers;
+    private LinkedBlockingQueue<Request<?>> queue = new LinkedBlockingQueue<>();
+    private Thread coordinator;
+    private volatile boolean running = true; // changed only while synchronized on this
+    private LongAdder batches = new LongAdder(); // batches run
+    private LongAdder scheduled = new LongAdder(); // units of work run
+
+    /**
+     * A submitted unit of work, with its declared blocks.
+     */
+    private static class Request<T> {
+        final Set<BlockId> reads;
+        final Set<BlockId> writes;
+        final TransactionRunner.Work<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Request(Collection<BlockId> reads, Collection<BlockId> writes, TransactionRunner.Work<T> work) {
+            this.reads = new HashSet<>(reads);
+            this.writes = new HashSet<>(writes);
+            this.work = work;
+        }
+
+        /**
+         * Returns true if this unit writes a block in either set,
+         * or reads a block in the written set.
+         */
+        boolean conflictsWith(Set<BlockId> otherReads, Set<BlockId> otherWrites) {
+            for (BlockId blk : writes)
+                if (otherWrites.contains(blk) || otherReads.contains(blk))
+                    return true;
+            for (BlockId blk : reads)
+                if (otherWrites.contains(blk))
+                    return true;
+            return false;
+        }
+
+        void run(TransactionRunner runner) {
+            try {
+                result.complete(runner.run(work));
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Creates a scheduler that runs batches of at most the specified
+     * size on the specified number of worker threads.
+     *
+     * @param runner       the runner that executes each unit of work
+     * @param workers      the number of worker threads
+     * @param maxBatchSize the largest number of units in a batch
+     */
+    public BatchScheduler(TransactionRunner runner, int workers, int maxBatchSize) {
+        this.runner = runner;
+        this.maxBatchSize = maxBatchSize;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "simpledb-batch-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        coordinator = new Thread(this::coordinate, "simpledb-batch-scheduler");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * Submits a unit of work that reads and writes only the
+     * specified blocks. A block that is written need not also be
+     * declared as read.
+     *
+     * @param reads  the blocks the work reads
+     * @param writes the blocks the work writes
+     * @param work   the unit of work
+     * @return a future for the value returned by the committed work,
+     *         completed exceptionally if the work failed
+     * @throws IllegalStateException if the scheduler has been shut down
+     */
+    public <T> CompletableFuture<T> submit(Collection<BlockId> reads, Collection<BlockId> writes,
+            TransactionRunner.Work<T> work) {
+        Request<T> request = new Request<>(reads, writes, work);
+        // checked and queued atomically, so the coordinator, which
+        // exits only once it sees the flag off and the queue empty,
+        // cannot miss the request
+        synchronized (this) {
+            if (!running)
+                throw new IllegalStateException("scheduler is shut down");
+            queue.add(request);
+        }
+        return request.result;
+    }
+
+    /**
+     * Stops accepting work, runs the work already submitted,
+     * and waits for it to finish.
+     */
+    public void shutdown() {
+        stopAccepting();
+        try {
+            coordinator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Returns the number of batches run by this scheduler.
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * Returns the number of units of work run by this scheduler.
+     */
+    public long scheduled() {
+        return scheduled.sum();
+    }
+
+    private synchronized void stopAccepting() {
+        running = false;
+    }
+
+    /**
+     * Forms and runs batches until the scheduler is shut down
+     * and no submitted work remains. Work that could not join a
+     * batch stays at the front of the pending list, ahead of
+     * anything submitted later. Interrupting the coordinator
+     * shuts the scheduler down; the work already submitted
+     * still runs.
+     */
+    private void coordinate() {
+        List<Request<?>> pending = new ArrayList<>();
+        while (running || !pending.isEmpty() || !queue.isEmpty()) {
+            if (Thread.currentThread().isInterrupted())
+                stopAccepting();
+            if (pending.isEmpty()) {
+                try {
+                    Request<?> first = queue.poll(IDLE_POLL, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+                    pending.add(first);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopAccepting();
+                }
+            }
+            queue.drainTo(pending);
+            if (!pending.isEmpty())
+                runBatch(nextBatch(pending));
+        }
+    }
+
+    /**
+     * Removes the next batch from the pending work, which is in
+     * submission order. A unit is deferred if it conflicts with the
+     * batch or with a unit deferred before it, so that it cannot
+     * overtake conflicting work submitted earlier.
+     */
+    private List<Request<?>> nextBatch(List<Request<?>> pending) {
+        List<Request<?>> batch = new ArrayList<>();
+        Set<BlockId> reads = new HashSet<>();
+        Set<BlockId> writes = new HashSet<>();
+        Set<BlockId> deferredReads = new HashSet<>();
+        Set<BlockId> deferredWrites = new HashSet<>();
+        for (Iterator<Request<?>> it = pending.iterator(); it.hasNext() && batch.size() < maxBatchSize;) {
+            Request<?> r = it.next();
+            if (r.conflictsWith(reads, writes) || r.conflictsWith(deferredReads, deferredWrites)) {
+                deferredReads.addAll(r.reads);
+                deferredWrites.addAll(r.writes);
+                continue;
+            }
+            batch.add(r);
+            reads.addAll(r.reads);
+            writes.addAll(r.writes);
+            it.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * Runs the units of a batch in parallel and waits for all of them.
+     */
+    private void runBatch(List<Request<?>> batch) {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Request<?> r = batch.get(i);
+            done[i] = CompletableFuture.runAsync(() -> r.run(runner), workers);
+        }
+        CompletableFuture.allOf(done).join();
+        batches.increment();
+        scheduled.add(batch.size());
+    }
+}
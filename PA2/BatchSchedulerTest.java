@@ -0,0 +1,123 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks the batch scheduler.
+ * Units that write the same block must run in submission order,
+ * and units that do not conflict must share batches. Every unit
+ * accepted by a scheduler must run, even when it is submitted while
+ * another thread shuts the scheduler down or its coordinator is
+ * interrupted; a unit that is refused must be refused at once.
+ *
+ * Usage: java simpledb.tx.BatchSchedulerTest
+ */
+public class BatchSchedulerTest {
+    private static final int BLOCKS = 16;
+    private static final int UNITS = 400;
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("batchschedulertest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 64);
+        Transaction tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++)
+            tx.append("data");
+        tx.commit();
+        TransactionRunner runner = new TransactionRunner(fm, lm, bm);
+
+        BatchScheduler scheduler = new BatchScheduler(runner, 8, 64);
+        BlockId counter = new BlockId("data", 0);
+        List<CompletableFuture<Boolean>> inOrder = new ArrayList<>();
+        for (int i = 0; i < UNITS; i++) {
+            int expected = i;
+            inOrder.add(scheduler.submit(List.of(), List.of(counter), t -> {
+                t.pin(counter);
+                boolean ok = t.getInt(counter, 0) == expected;
+                t.setInt(counter, 0, expected + 1, true);
+                return ok;
+            }));
+        }
+        for (CompletableFuture<Boolean> f : inOrder)
+            check(f.get(60, TimeUnit.SECONDS), "conflicting units ran out of order");
+        long batches = scheduler.batches();
+        List<CompletableFuture<Void>> disjoint = new ArrayList<>();
+        for (int i = 0; i < UNITS; i++) {
+            BlockId blk = new BlockId("data", 1 + i % (BLOCKS - 1));
+            disjoint.add(scheduler.submit(List.of(), List.of(blk), t -> increment(t, blk)));
+        }
+        CompletableFuture.allOf(disjoint.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        check(scheduler.batches() - batches < UNITS / 4, "non-conflicting units were not batched");
+        scheduler.shutdown();
+
+        scheduler = new BatchScheduler(runner, 8, 64);
+        check(acceptedUnitsRun(scheduler, scheduler::shutdown), "a unit accepted during shutdown never ran");
+        scheduler = new BatchScheduler(runner, 8, 64);
+        check(acceptedUnitsRun(scheduler, () -> coordinatorThread().interrupt()),
+                "a unit accepted before an interrupt never ran");
+        scheduler.shutdown();
+        System.out.println("BatchSchedulerTest passed");
+    }
+
+    /**
+     * Submits units from another thread until the scheduler refuses
+     * one, running the action that stops the scheduler meanwhile.
+     * Returns true if every accepted unit completed.
+     */
+    private static boolean acceptedUnitsRun(BatchScheduler scheduler, Runnable stop) throws Exception {
+        List<CompletableFuture<Void>> accepted = new ArrayList<>();
+        AtomicBoolean refused = new AtomicBoolean();
+        Thread submitter = new Thread(() -> {
+            try {
+                for (int i = 0; true; i++) {
+                    BlockId blk = new BlockId("data", 1 + i % (BLOCKS - 1));
+                    accepted.add(scheduler.submit(List.of(), List.of(blk), t -> increment(t, blk)));
+                    Thread.sleep(0, 100_000);
+                }
+            } catch (IllegalStateException e) {
+                refused.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+        Thread.sleep(50);
+        stop.run();
+        submitter.join(TimeUnit.SECONDS.toMillis(10));
+        check(refused.get(), "the stopped scheduler kept accepting work");
+        try {
+            CompletableFuture.allOf(accepted.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            return true;
+        } catch (java.util.concurrent.TimeoutException e) {
+            return false;
+        }
+    }
+
+    private static Void increment(Transaction tx, BlockId blk) {
+        tx.pin(blk);
+        tx.setInt(blk, 0, tx.getInt(blk, 0) + 1, true);
+        return null;
+    }
+
+    private static Thread coordinatorThread() {
+        for (Thread t : Thread.getAllStackTraces().keySet())
+            if (t.getName().equals("simpledb-batch-scheduler") && t.isAlive())
+                return t;
+        throw new AssertionError("no coordinator thread");
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -1,5 +1,9 @@
 package simpledb.buffer;
 
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
@@ -12,6 +16,9 @@ import simpledb.log.LogMgr;
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
  * and if so, the id and lsn of the modifying transaction.
+ * Each buffer also has a latch, which keeps a page access from seeing
+ * a concurrent modification half done. Unlike a transaction lock, a
+ * latch is held only for the length of one access.
  * 
  * @author Edward Sciore
  */
@@ -24,6 +31,7 @@ public class Buffer {
     private int txnum = -1; /* dirty flag. The ID of the modifying transaction for this buffer */
     private int lsn = -1; /* log sequence number */
     private int bufferId; /* buffer object id */
+    private final StampedLock latch = new StampedLock(); /* guards the page contents */
 
     /**
      * Constructor
@@ -32,16 +40,62 @@ public class Buffer {
         this.fm = fm;
         this.lm = lm;
         this.bufferId = bufferId;
-        contents = new Page(fm.blockSize());
+        contents = fm.newPage();
     }
 
     /**
-     * Returns the contents (i.e., page) of this buffer
+     * Returns the contents (i.e., page) of this buffer.
+     * Accessing the page directly bypasses the latch; it is only safe
+     * for a thread whose transaction lock keeps other writers out.
      */
     public Page contents() {
         return contents;
     }
 
+    /**
+     * Runs a read of the page and returns its result.
+     * The read is first tried optimistically, without the latch;
+     * if a write ran at the same time, the result is discarded and
+     * the read is repeated holding the latch in shared mode.
+     * 
+     * @param reader the read, which must not modify the page
+     * @return the result of the read
+     */
+    public <T> T read(Function<Page, T> reader) {
+        long stamp = latch.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.apply(contents);
+                if (latch.validate(stamp))
+                    return result;
+            } catch (RuntimeException e) {
+                if (latch.validate(stamp))
+                    throw e; // not caused by a torn read
+            }
+        }
+        stamp = latch.readLock();
+        try {
+            return reader.apply(contents);
+        } finally {
+            latch.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs a modification of the page holding the latch in
+     * exclusive mode, so that no read sees it partly done.
+     * 
+     * @param writer the modification
+     */
+    public void write(Consumer<Page> writer) {
+        long stamp = latch.writeLock();
+        try {
+            writer.accept(contents);
+        } finally {
+            latch.unlockWrite(stamp);
+        }
+    }
+
     /**
      * Returns a reference to the disk block
      * allocated to the buffer.
@@ -95,18 +149,30 @@ public class Buffer {
     void assignToBlock(BlockId b) {
         flush();
         blk = b;
-        fm.read(blk, contents);
+        long stamp = latch.writeLock();
+        try {
+            fm.read(blk, contents);
+        } finally {
+            latch.unlockWrite(stamp);
+        }
         pins = 0;
     }
 
     /**
      * If the buffer is dirty, write the log entry in a log file
-     * and write the buffer to its disk block
+     * and write the buffer to its disk block.
+     * The page is written holding the latch in shared mode,
+     * so a concurrent modification cannot tear the block on disk.
      */
     void flush() {
         if (txnum >= 0) {
             lm.flush(lsn);
-            fm.write(blk, contents);
+            long stamp = latch.readLock();
+            try {
+                fm.write(blk, contents);
+            } finally {
+                latch.unlockRead(stamp);
+            }
             txnum = -1;
         }
     }
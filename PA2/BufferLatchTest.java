@@ -0,0 +1,102 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks the page latch of a buffer.
+ * One writer keeps rewriting a pair of equal ints and a string that
+ * alternates between two values, first overwriting the string's
+ * length with one far past the end of the page. Readers that run
+ * without the latch while a write is under way can see any mix of
+ * the two states, and may even fail; every result they return must
+ * still be consistent, and no failure caused by a concurrent write
+ * may reach them. A read that fails on its own must still throw.
+ *
+ * Usage: java simpledb.buffer.BufferLatchTest
+ */
+public class BufferLatchTest {
+    private static final int READERS = 4;
+    private static final long MILLIS = 2000; // how long the readers and the writer run
+    private static final int PAIR = 2000; // offset of the pair of ints
+    private static final String X = "x".repeat(300);
+    private static final String Y = "yy".repeat(10);
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("bufferlatchtest" + System.nanoTime()), 4096);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 8);
+        BlockId blk = fm.append("data");
+        Buffer buff = bm.pin(blk);
+        buff.write(p -> {
+            p.setString(0, X);
+            p.setInt(PAIR, 0);
+            p.setInt(PAIR + Integer.BYTES, 0);
+        });
+
+        long end = System.currentTimeMillis() + MILLIS;
+        Thread writer = new Thread(() -> {
+            for (int i = 1; System.currentTimeMillis() < end; i++) {
+                int k = i;
+                buff.write(p -> {
+                    p.setInt(0, Integer.MAX_VALUE); // a string no read could fit
+                    p.setInt(PAIR, k);
+                    p.setString(0, (k % 2 == 0) ? X : Y);
+                    p.setInt(PAIR + Integer.BYTES, k);
+                });
+            }
+        });
+        AtomicLong reads = new AtomicLong();
+        AtomicLong inconsistent = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++)
+            readers.add(new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        boolean ok = buff.read(p -> {
+                            String s = p.getString(0);
+                            return (s.equals(X) || s.equals(Y)) && p.getInt(PAIR) == p.getInt(PAIR + Integer.BYTES);
+                        });
+                        if (!ok)
+                            inconsistent.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        writer.start();
+        for (Thread t : readers)
+            t.start();
+        writer.join();
+        for (Thread t : readers)
+            t.join();
+        check(reads.get() > 0, "no reads ran");
+        check(inconsistent.get() == 0, inconsistent.get() + " of " + reads.get() + " reads saw a torn page");
+        check(failures.get() == 0, failures.get() + " of " + reads.get() + " reads failed on a torn page");
+
+        RuntimeException own = new IllegalStateException("the reader's own failure");
+        try {
+            buff.read(p -> {
+                throw own;
+            });
+            throw new AssertionError("a failing read returned");
+        } catch (IllegalStateException e) {
+            check(e == own, "a failing read threw something else");
+        }
+        bm.unpin(buff);
+        System.out.println("BufferLatchTest passed");
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -1,8 +1,13 @@
 package simpledb.buffer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
@@ -11,7 +16,9 @@ import simpledb.log.LogMgr;
 /**
  * Manages the pinning and unpinning of buffers to blocks using an LRU
  * replacement strategy.
- * 
+ * Threads waiting for a buffer park on a {@link Condition} rather than an
+ * object monitor, so a client running on a virtual thread unmounts while
+ * it waits.
  *
  */
 public class BufferMgr {
@@ -20,6 +27,8 @@ public class BufferMgr {
     private Buffer[] allBuffers; // Array containing all buffer objects
     private int numAvailable;
     private static final long MAX_TIME = 10000;
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final Condition bufferFreed = mutex.newCondition(); // signalled when a buffer becomes unpinned
 
     /**
      * Constructor: Creates a buffer manager having the specified
@@ -49,19 +58,39 @@ public class BufferMgr {
      * 
      * @return the number of available buffers
      */
-    public synchronized int available() {
-        return numAvailable;
+    public int available() {
+        mutex.lock();
+        try {
+            return numAvailable;
+        } finally {
+            mutex.unlock();
+        }
     }
 
     /**
      * Flushes the dirty buffers modified by the specified transaction.
+     * The buffers are pinned while they are written so that the disk
+     * writes can happen outside the buffer manager's lock, letting
+     * concurrent committers flush (and group their log writes) in parallel.
      * 
      * @param txId the transaction's id number
      */
-    public synchronized void flushAll(int txId) {
-        for (Buffer buff : allBuffers)
-            if (buff.modifyingTx() == txId)
-                buff.flush();
+    public void flushAll(int txId) {
+        List<Buffer> dirty = new ArrayList<>();
+        mutex.lock();
+        try {
+            for (Buffer buff : allBuffers)
+                if (buff.modifyingTx() == txId) {
+                    pinBuffer(buff);
+                    dirty.add(buff);
+                }
+        } finally {
+            mutex.unlock();
+        }
+        for (Buffer buff : dirty)
+            buff.flush();
+        for (Buffer buff : dirty)
+            unpin(buff);
     }
 
     /**
@@ -72,17 +101,21 @@ public class BufferMgr {
      * 
      * @param buff the buffer to be unpinned
      */
-    public synchronized void unpin(Buffer buff) {
-
-        // if the buffer.pin is 0, then just return
-        if (!buff.isPinned())
-            return;
+    public void unpin(Buffer buff) {
+        mutex.lock();
+        try {
+            // if the buffer.pin is 0, then just return
+            if (!buff.isPinned())
+                return;
 
-        buff.unpin();
-        if (!buff.isPinned()) {
-            numAvailable++;
-            unpinnedBuffers.addLast(buff); // add to the end of the LRU list
-            notifyAll();
+            buff.unpin();
+            if (!buff.isPinned()) {
+                numAvailable++;
+                unpinnedBuffers.addLast(buff); // add to the end of the LRU list
+                bufferFreed.signalAll();
+            }
+        } finally {
+            mutex.unlock();
         }
     }
 
@@ -95,19 +128,45 @@ public class BufferMgr {
      * @param blk a reference to a disk block
      * @return the buffer pinned to that block
      */
-    public synchronized Buffer pin(BlockId blk) {
+    public Buffer pin(BlockId blk) {
+        return pin(blk, 0);
+    }
+
+    /**
+     * Pins a buffer to the specified block on behalf of a transaction,
+     * as {@link #pin(BlockId)} does. The pin is reported to the flight
+     * recorder as a {@link PinEvent} carrying the transaction's ID.
+     * 
+     * @param blk  a reference to a disk block
+     * @param txId the ID of the pinning transaction
+     * @return the buffer pinned to that block
+     */
+    public Buffer pin(BlockId blk, int txId) {
+        PinEvent event = new PinEvent();
+        event.begin();
+        String outcome = PinEvent.ABORT;
+        mutex.lock();
         try {
+            boolean resident = event.isEnabled() && blockBufferMap.containsKey(blk);
             long timestamp = System.currentTimeMillis();
             Buffer buff = tryToPin(blk);
+            outcome = resident ? PinEvent.HIT : PinEvent.MISS;
             while (buff == null && !waitingTooLong(timestamp)) {
-                wait(MAX_TIME);
+                outcome = PinEvent.WAIT;
+                bufferFreed.await(MAX_TIME, TimeUnit.MILLISECONDS);
                 buff = tryToPin(blk);
             }
-            if (buff == null)
+            if (buff == null) {
+                outcome = PinEvent.ABORT;
                 throw new BufferAbortException();
+            }
             return buff;
         } catch (InterruptedException e) {
+            outcome = PinEvent.ABORT;
             throw new BufferAbortException();
+        } finally {
+            mutex.unlock();
+            event.emit(txId, blk, outcome);
         }
     }
 
@@ -143,12 +202,22 @@ public class BufferMgr {
             buff.assignToBlock(blk);
             blockBufferMap.put(blk, buff); // add the buffer to blockBufferMap with new blockId
         }
+        pinBuffer(buff);
+        return buff;
+    }
+
+    /**
+     * Pins a buffer that is already assigned to a block,
+     * taking it off the LRU list if it was unpinned.
+     * 
+     * @param buff the buffer to pin
+     */
+    private void pinBuffer(Buffer buff) {
         if (!buff.isPinned()) {
             numAvailable--;
             unpinnedBuffers.remove(buff); // remove the buffer from unpinnedBuffers
         }
         buff.pin();
-        return buff;
     }
 
     /**
@@ -0,0 +1,101 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.Iterator;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks non-quiescent checkpoints with more active transactions
+ * than fit in one log record.
+ * The checkpoint must be split over several records, and recovery
+ * must read all of them, so that it still undoes an update made
+ * by a transaction that is listed only in an early record.
+ * A checkpoint whose last record is missing, as after a crash
+ * while it was written, must be ignored.
+ *
+ * Usage: java simpledb.tx.recovery.CheckpointTest
+ */
+public class CheckpointTest {
+    private static final int BLOCK_SIZE = 400;
+    private static final int ACTIVE = 1000; // transactions active at the checkpoint
+    private static final int FIRST_TXNUM = 2_000_000; // beyond any real transaction
+
+    public static void main(String[] args) {
+        File dir = new File("checkpointtest" + System.nanoTime());
+        FileMgr fm = new FileMgr(dir, BLOCK_SIZE);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 8);
+        Transaction tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < 2; i++) {
+            BlockId blk = tx.append("data");
+            tx.pin(blk);
+            tx.setInt(blk, 0, i, true);
+            tx.unpin(blk);
+        }
+        tx.commit();
+
+        new RecoveryMgr(null, FIRST_TXNUM, lm, bm);
+        crashedUpdate(fm, lm, FIRST_TXNUM, new BlockId("data", 0));
+        for (int t = 1; t < ACTIVE; t++)
+            new RecoveryMgr(null, FIRST_TXNUM + t, lm, bm);
+        int lsn = RecoveryMgr.checkpoint(lm);
+        check(lsn >= 0, "checkpoint skipped");
+        check(checkpointRecords(lm) > 1, "the checkpoint was not split");
+
+        int late = FIRST_TXNUM + ACTIVE;
+        new RecoveryMgr(null, late, lm, bm);
+        crashedUpdate(fm, lm, late, new BlockId("data", 1));
+        byte[] partial = new byte[4 * Integer.BYTES]; // part 0 of 2, listing nothing
+        Page p = new Page(partial);
+        p.setInt(0, LogRecord.NQCKPT);
+        p.setInt(2 * Integer.BYTES, 2);
+        lm.flush(lm.append(partial));
+
+        FileMgr fm2 = new FileMgr(dir, BLOCK_SIZE);
+        LogMgr lm2 = new LogMgr(fm2, "log");
+        BufferMgr bm2 = new BufferMgr(fm2, lm2, 8);
+        Transaction r = new Transaction(fm2, lm2, bm2);
+        r.recover();
+        r.commit();
+        tx = new Transaction(fm2, lm2, bm2);
+        for (int i = 0; i < 2; i++) {
+            BlockId blk = new BlockId("data", i);
+            tx.pin(blk);
+            check(tx.getInt(blk, 0) == i, "update of block " + i + " was not undone");
+        }
+        tx.commit();
+        System.out.println("CheckpointTest passed");
+    }
+
+    /**
+     * Logs an update of the first integer of the block by the
+     * transaction, and writes the changed page straight to disk.
+     */
+    private static void crashedUpdate(FileMgr fm, LogMgr lm, int txnum, BlockId blk) {
+        Page p = new Page(BLOCK_SIZE);
+        fm.read(blk, p);
+        lm.flush(SetIntRecord.writeToLog(lm, txnum, blk, 0, p.getInt(0)));
+        p.setInt(0, -1);
+        fm.write(blk, p);
+    }
+
+    private static int checkpointRecords(LogMgr lm) {
+        int count = 0;
+        Iterator<byte[]> it = lm.iterator();
+        while (it.hasNext())
+            if (LogRecord.createLogRecord(it.next()).op() == LogRecord.NQCKPT)
+                count++;
+        return count;
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * Compares the commit throughput of the two durability levels.
+ * Each thread repeatedly runs a transaction that increments an
+ * integer in its own block, so the threads never conflict, and
+ * commits it with {@link Durability#SYNC} or {@link Durability#ASYNC}.
+ * Both levels write the transaction's modified pages at commit;
+ * ASYNC saves the flush of the commit record.
+ *
+ * Usage: java simpledb.tx.CommitBench dir [threads] [seconds]
+ */
+public class CommitBench {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: CommitBench dir [threads] [seconds]");
+            return;
+        }
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+        for (Durability durability : Durability.values())
+            run(new File(args[0], "commitbench-" + durability.name().toLowerCase() + System.nanoTime()),
+                    durability, threads, seconds);
+    }
+
+    private static void run(File dir, Durability durability, int threads, int seconds)
+            throws InterruptedException {
+        FileMgr fm = new FileMgr(dir, 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, threads + 8);
+        Transaction init = new Transaction(fm, lm, bm);
+        for (int i = 0; i < threads; i++)
+            init.append("data");
+        init.commit();
+
+        LongAdder commits = new LongAdder();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            BlockId blk = new BlockId("data", t);
+            workers[t] = new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    Transaction tx = new Transaction(fm, lm, bm);
+                    tx.pin(blk);
+                    tx.setInt(blk, 0, tx.getInt(blk, 0) + 1, true);
+                    tx.commit(durability);
+                    commits.increment();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread t : workers)
+            t.join();
+        double rate = commits.sum() / (double) seconds;
+        System.out.printf("%-5s %2d threads: %8.0f commits/s  %8.1f us/commit%n",
+                durability, threads, rate, threads * 1e6 / rate);
+    }
+}
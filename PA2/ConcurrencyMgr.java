@@ -21,6 +21,11 @@ public class ConcurrencyMgr {
      * all transactions share the same table.
      */
     private static LockTable locktbl = new LockTable();
+
+    static {
+        locktbl.stats().registerMBean("simpledb:type=LockStats");
+    }
+
     private Map<BlockId, String> locks = new HashMap<BlockId, String>();
     private int txId; // transaction id
 
@@ -59,6 +64,49 @@ public class ConcurrencyMgr {
         }
     }
 
+    /**
+     * Lock the block for a single read by a read-only transaction.
+     * The lock is not remembered by this manager and must be
+     * released with {@link #endRead(BlockId)} as soon as the value
+     * has been read.
+     * 
+     * @param blk a reference to the disk block
+     */
+    public void beginRead(BlockId blk) {
+        locktbl.readLock(blk);
+    }
+
+    /**
+     * Release the lock obtained by {@link #beginRead(BlockId)}.
+     * 
+     * @param blk a reference to the disk block
+     */
+    public void endRead(BlockId blk) {
+        locktbl.readUnlock(blk);
+    }
+
+    /**
+     * Return the version of the block, which changes each time
+     * a transaction releases an XLock on it.
+     * 
+     * @param blk a reference to the disk block
+     * @return the block's current version
+     */
+    public long version(BlockId blk) {
+        return locktbl.version(blk);
+    }
+
+    /**
+     * Return true if another transaction holds an XLock on the block,
+     * and so may have modified it without committing.
+     * 
+     * @param blk a reference to the disk block
+     * @return true if the block has uncommitted changes of another transaction
+     */
+    public boolean xLockedByOther(BlockId blk) {
+        return locktbl.xLockedByOther(blk, txId);
+    }
+
     /**
      * Release all locks by asking the lock table to
      * unlock each one.
@@ -69,6 +117,37 @@ public class ConcurrencyMgr {
         locks.clear();
     }
 
+    /**
+     * Returns the statistics of the global lock table.
+     * The same statistics are published over JMX as
+     * "simpledb:type=LockStats".
+     * 
+     * @return the lock statistics
+     */
+    public static LockStats lockStats() {
+        return locktbl.stats();
+    }
+
+    /**
+     * Starts recording every lock request and release of the global
+     * lock table into a new trace, replacing any trace in progress.
+     * 
+     * @param capacity the number of most recent events to keep
+     * @return the trace being recorded
+     */
+    public static LockTrace startTrace(int capacity) {
+        LockTrace trace = new LockTrace(capacity);
+        locktbl.setTrace(trace);
+        return trace;
+    }
+
+    /**
+     * Stops recording lock events.
+     */
+    public static void stopTrace() {
+        locktbl.setTrace(null);
+    }
+
     private boolean hasXLock(BlockId blk) {
         String locktype = locks.get(blk);
         return locktype != null && locktype.equals("X");
@@ -0,0 +1,134 @@
+package simpledb.tx.concurrency;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.buffer.Buffer;
+import simpledb.buffer.BufferAbortException;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks the waits of the lock table and the buffer manager under
+ * heavy contention.
+ * Thousands of threads, released at once, take S- and X-locks on a
+ * few blocks, retrying aborted requests under the same ID, and pin
+ * their own blocks through a pool of a handful of buffers. No thread
+ * holds a lock while it pins or a buffer while it locks, so every
+ * wait ends with a release. The threads go through the rounds in
+ * step, so the last releases of a round are not followed by others
+ * that could wake a waiter by chance. A waiter whose signal was lost
+ * would hang on a lock, or give up on a buffer once the buffer
+ * manager's timeout passed: every thread must finish in time, no pin may give up, no
+ * update made under an X-lock may be lost, and the whole pool must be
+ * free at the end.
+ *
+ * Usage: java simpledb.tx.concurrency.ContentionTest
+ */
+public class ContentionTest {
+    private static final int THREADS = 4000;
+    private static final int ROUNDS = 10; // lock and pin requests per thread
+    private static final int SHARED = 4; // blocks every thread locks
+    private static final int BUFFERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("contentiontest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, BUFFERS);
+        for (int t = 0; t < THREADS; t++)
+            fm.append("own");
+
+        LockTable table = new LockTable();
+        int[] counters = new int[SHARED]; // changed only under an X-lock
+        AtomicInteger writes = new AtomicInteger();
+        AtomicInteger pinFailures = new AtomicInteger();
+        AtomicInteger nextTxId = new AtomicInteger(1);
+        CyclicBarrier round = new CyclicBarrier(THREADS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            BlockId own = new BlockId("own", t);
+            Thread thread = new Thread(() -> {
+                for (int r = 0; r < ROUNDS; r++) {
+                    await(round);
+                    int b = ThreadLocalRandom.current().nextInt(SHARED);
+                    BlockId blk = new BlockId("shared", b);
+                    boolean write = ThreadLocalRandom.current().nextInt(4) == 0;
+                    int txId = nextTxId.getAndIncrement();
+                    lock(table, blk, txId, write);
+                    if (write) {
+                        int c = counters[b];
+                        Thread.yield(); // let others queue up behind the lock
+                        counters[b] = c + 1;
+                        writes.incrementAndGet();
+                    } else
+                        Thread.yield();
+                    table.unlock(blk, txId);
+                    try {
+                        Buffer buff = bm.pin(own);
+                        Thread.yield(); // let others run out of buffers
+                        bm.unpin(buff);
+                    } catch (BufferAbortException e) {
+                        pinFailures.incrementAndGet();
+                    }
+                }
+            });
+            thread.setDaemon(true); // a hung waiter must not keep the JVM alive
+            threads.add(thread);
+            thread.start();
+        }
+        long deadline = System.currentTimeMillis() + 120_000;
+        for (Thread t : threads) {
+            t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            check(!t.isAlive(), "a thread is still waiting");
+        }
+
+        check(pinFailures.get() == 0, pinFailures.get() + " pins gave up waiting for a buffer");
+        check(bm.available() == BUFFERS, "only " + bm.available() + " buffers are free");
+        LockStats stats = table.stats();
+        check(stats.getSLockWaits() + stats.getXLockWaits() > 0, "no request waited for a lock");
+        int sum = 0;
+        for (int c : counters)
+            sum += c;
+        check(sum == writes.get(), "the counters hold " + sum + " of " + writes.get() + " updates");
+        System.out.println("ContentionTest passed");
+    }
+
+    /**
+     * Takes the lock, retrying under the same ID whenever Wait-Die
+     * aborts the request, so that the transaction ages into one
+     * that waits.
+     */
+    private static void lock(LockTable table, BlockId blk, int txId, boolean exclusive) {
+        while (true) {
+            try {
+                if (exclusive)
+                    table.xLock(blk, txId);
+                else
+                    table.sLock(blk, txId);
+                return;
+            } catch (LockAbortException e) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
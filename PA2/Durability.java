@@ -0,0 +1,24 @@
+package simpledb.tx;
+
+/**
+ * How durable a transaction's commit must be when
+ * {@link Transaction#commit(Durability)} returns.
+ */
+public enum Durability {
+    /**
+     * The commit record is on disk before commit returns.
+     */
+    SYNC,
+
+    /**
+     * The commit record is written to the log but flushed by the
+     * log manager's background flusher; a crash within the flush
+     * interval may roll the transaction back.
+     * The transaction's modified pages are still written before
+     * commit returns, together with the log records they depend on:
+     * recovery only undoes, so a committed transaction's pages must
+     * be on disk before its commit record can be. ASYNC therefore
+     * saves one log write per commit, not the page writes.
+     */
+    ASYNC
+}
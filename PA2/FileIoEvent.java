@@ -0,0 +1,47 @@
+package simpledb.file;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for a block read or written by the
+ * {@link FileMgr}. The file manager does not know which transaction
+ * an access is for; a read for a buffer pin is nested in that pin's
+ * {@code simpledb.BufferPin} event, which carries the transaction ID.
+ */
+@Name("simpledb.FileIO")
+@Label("File I/O")
+@Category({ "SimpleDB", "File" })
+@StackTrace(false)
+class FileIoEvent extends jdk.jfr.Event {
+    static final String READ = "read";
+    static final String WRITE = "write";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String fileName;
+
+    @Label("Block")
+    int block;
+
+    @Label("I/O Mode")
+    String mode;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(String operation, BlockId blk, IoMode mode) {
+        if (!shouldCommit())
+            return;
+        this.operation = operation;
+        this.fileName = blk.fileName();
+        this.block = blk.number();
+        this.mode = mode.name();
+        commit();
+    }
+}
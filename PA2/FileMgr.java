@@ -0,0 +1,512 @@
+package simpledb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * The file manager, which reads and writes blocks of the database files.
+ * Files grow in extents: when an append reaches the end of the space
+ * already allocated, the file is extended by several zeroed blocks at once.
+ * New block numbers are handed out by an atomic per-file counter, so
+ * appends to the same file only coordinate when an extent is added
+ * and when the counter is saved, and reading a file's size never waits
+ * for an append. Appends to different files never coordinate. Both the
+ * number of allocated blocks and the number handed out are saved, so
+ * a reopened file keeps every block that was appended, including
+ * blocks that hold only zeros, and none that was not.
+ * In {@link IoMode#MMAP} mode, files are also mapped into memory in
+ * fixed-size segments once they are long enough to fill them, and
+ * blocks in mapped segments are copied to and from the mapping.
+ * In {@link IoMode#DIRECT} mode, files bypass the operating system's
+ * page cache, and blocks are transferred from memory-aligned pages.
+ * Reads and writes use positional calls and do not lock each other out.
+ * They can also be submitted asynchronously: a pool of I/O threads
+ * performs them, with the number in flight bounded by a queue depth.
+ *
+ * @author Edward Sciore
+ */
+public class FileMgr {
+    private File dbDirectory;
+    private int blocksize;
+    private boolean isNew;
+    private Map<String, OpenFile> openFiles = new ConcurrentHashMap<>();
+    private volatile int extentSize = 8; // blocks added to a file at a time
+    private IoMode mode;
+    private int segmentBlocks; // blocks per mapped segment
+    private static final int SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final int ALLOCATED_POS = 0; // companion file offset of the allocated count
+    private static final int SIZE_POS = Integer.BYTES; // companion file offset of the handed-out count
+    private static final String SIZE_SUFFIX = ".size"; // names the file holding a file's block counts
+    private int alignment = 1; // required alignment of direct transfers
+    private final ThreadLocal<ByteBuffer> bounce = ThreadLocal.withInitial(() -> newPage().contents());
+    private volatile Semaphore inFlight = new Semaphore(32); // permits for asynchronous operations
+    private final ExecutorService ioPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public FileMgr(File dbDirectory, int blocksize) {
+        this(dbDirectory, blocksize, IoMode.CHANNEL);
+    }
+
+    /**
+     * Creates a file manager that uses the specified I/O mode
+     * for every file of the database.
+     *
+     * @param dbDirectory the database directory
+     * @param blocksize   the block size
+     * @param mode        how blocks are read and written
+     */
+    public FileMgr(File dbDirectory, int blocksize, IoMode mode) {
+        this.dbDirectory = dbDirectory;
+        this.blocksize = blocksize;
+        this.mode = mode;
+        this.segmentBlocks = Math.max(1, SEGMENT_BYTES / blocksize);
+        isNew = !dbDirectory.exists();
+
+        // create the directory if the database is new
+        if (isNew)
+            dbDirectory.mkdirs();
+
+        if (mode == IoMode.DIRECT) {
+            try {
+                alignment = (int) Files.getFileStore(dbDirectory.toPath()).getBlockSize();
+            } catch (IOException e) {
+                throw new RuntimeException("cannot access " + dbDirectory);
+            }
+            if (blocksize % alignment != 0)
+                throw new IllegalArgumentException("block size " + blocksize
+                        + " is not a multiple of the file system block size " + alignment);
+        }
+
+        // remove any leftover temporary tables
+        for (String filename : dbDirectory.list())
+            if (filename.startsWith("temp"))
+                new File(dbDirectory, filename).delete();
+    }
+
+    /**
+     * Sets the number of blocks by which a file grows when
+     * its allocated space runs out. An extent size of 1
+     * allocates every block individually.
+     *
+     * @param blocks the extent size, in blocks
+     */
+    public void setExtentSize(int blocks) {
+        extentSize = Math.max(1, blocks);
+    }
+
+    /**
+     * Creates a page that can hold a block of this file manager.
+     * In {@link IoMode#DIRECT} mode the page is aligned in memory,
+     * so it can be transferred without an extra copy.
+     *
+     * @return a new, zeroed page
+     */
+    public Page newPage() {
+        return (mode == IoMode.DIRECT) ? new Page(blocksize, alignment) : new Page(blocksize);
+    }
+
+    public void read(BlockId blk, Page p) {
+        FileIoEvent event = new FileIoEvent();
+        event.begin();
+        readBlock(blk, p);
+        event.emit(FileIoEvent.READ, blk, mode);
+    }
+
+    public void write(BlockId blk, Page p) {
+        FileIoEvent event = new FileIoEvent();
+        event.begin();
+        writeBlock(blk, p);
+        event.emit(FileIoEvent.WRITE, blk, mode);
+    }
+
+    private void readBlock(BlockId blk, Page p) {
+        try {
+            MappedByteBuffer seg = segment(getFile(blk.fileName()), blk.number());
+            if (seg != null) {
+                p.contents().put(0, seg, segmentOffset(blk.number()), blocksize);
+                return;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read block " + blk);
+        }
+        channelRead(blk, p);
+    }
+
+    private void writeBlock(BlockId blk, Page p) {
+        try {
+            MappedByteBuffer seg = segment(getFile(blk.fileName()), blk.number());
+            if (seg != null) {
+                int offset = segmentOffset(blk.number());
+                seg.put(offset, p.contents(), 0, blocksize);
+                seg.force(offset, blocksize);
+                return;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("cannot write block" + blk);
+        }
+        channelWrite(blk, p);
+    }
+
+    /**
+     * Reads the block into the page with the specified ID.
+     * The read happens on an I/O thread, and the returned future
+     * completes with the page once the read is done.
+     * The call waits while the configured number of
+     * asynchronous operations is already in flight.
+     *
+     * @param blk a reference to a disk block
+     * @param p   the page to read into
+     * @return a future for the filled page
+     * @see #setQueueDepth(int)
+     */
+    public CompletableFuture<Page> readAsync(BlockId blk, Page p) {
+        return submit(() -> {
+            read(blk, p);
+            return p;
+        });
+    }
+
+    /**
+     * Reads several blocks at once, keeping as many reads in flight
+     * as the queue depth allows.
+     *
+     * @param blks  the blocks to read
+     * @param pages the pages to read them into, in the same order
+     * @return a future for each page, in the same order
+     */
+    public List<CompletableFuture<Page>> readAsync(List<BlockId> blks, List<Page> pages) {
+        List<CompletableFuture<Page>> result = new ArrayList<>(blks.size());
+        for (int i = 0; i < blks.size(); i++)
+            result.add(readAsync(blks.get(i), pages.get(i)));
+        return result;
+    }
+
+    /**
+     * Writes the page to the block on an I/O thread.
+     * The page must not be modified until the returned future completes.
+     *
+     * @param blk a reference to a disk block
+     * @param p   the page to write
+     * @return a future that completes when the block is on disk
+     */
+    public CompletableFuture<Void> writeAsync(BlockId blk, Page p) {
+        return submit(() -> {
+            write(blk, p);
+            return null;
+        });
+    }
+
+    /**
+     * Sets the largest number of asynchronous reads and writes
+     * that may be in flight at once. Operations already in flight
+     * are not affected.
+     *
+     * @param depth the queue depth
+     */
+    public void setQueueDepth(int depth) {
+        inFlight = new Semaphore(Math.max(1, depth));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> op) {
+        Semaphore permits = inFlight;
+        permits.acquireUninterruptibly();
+        try {
+            return CompletableFuture.supplyAsync(op, ioPool).whenComplete((r, e) -> permits.release());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a block with positional channel calls, which can run
+     * concurrently with any other read or write.
+     * For direct I/O, a page that is not aligned is read
+     * through this thread's aligned buffer.
+     */
+    private void channelRead(BlockId blk, Page p) {
+        try {
+            FileChannel channel = getFile(blk.fileName()).channel;
+            ByteBuffer bb = p.contents();
+            ByteBuffer target = isAligned(bb) ? bb : bounce.get().clear();
+            long pos = (long) blk.number() * blocksize;
+            while (target.hasRemaining()) {
+                int n = channel.read(target, pos + target.position());
+                if (n <= 0)
+                    break;
+            }
+            while (target.hasRemaining()) // a block whose extent is still being written
+                target.put((byte) 0);
+            if (target != bb)
+                bb.put(0, target, 0, blocksize);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read block " + blk);
+        }
+    }
+
+    /**
+     * Writes a block with positional channel calls. A block past the
+     * allocated space is written under the lock that extends the file,
+     * so that the extension cannot zero it afterwards.
+     */
+    private void channelWrite(BlockId blk, Page p) {
+        try {
+            OpenFile f = getFile(blk.fileName());
+            if (blk.number() >= f.allocated) {
+                f.growth.lock();
+                try {
+                    positionalWrite(f.channel, blk, p);
+                } finally {
+                    f.growth.unlock();
+                }
+            } else
+                positionalWrite(f.channel, blk, p);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot write block" + blk);
+        }
+    }
+
+    private void positionalWrite(FileChannel channel, BlockId blk, Page p) throws IOException {
+        ByteBuffer bb = p.contents();
+        if (!isAligned(bb))
+            bb = bounce.get().clear().put(0, bb, 0, blocksize);
+        long pos = (long) blk.number() * blocksize;
+        while (bb.hasRemaining())
+            channel.write(bb, pos + bb.position());
+    }
+
+    /**
+     * Appends a zeroed block to the file and returns it.
+     * The block number comes from the file's counter; the file is
+     * only extended, by a whole extent, when the number falls past
+     * its allocated space. The counter is saved before the block
+     * is returned.
+     *
+     * @param filename the name of the file
+     * @return the new block
+     */
+    public BlockId append(String filename) {
+        BlockId blk = null;
+        try {
+            OpenFile f = getFile(filename);
+            int newblknum = f.size.getAndIncrement();
+            blk = new BlockId(filename, newblknum);
+            if (newblknum >= f.allocated)
+                extend(f, newblknum);
+            f.saveSize(newblknum + 1);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot append block" + blk);
+        }
+        return blk;
+    }
+
+    public int length(String filename) {
+        try {
+            return getFile(filename).size.get();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot access " + filename);
+        }
+    }
+
+    public boolean isNew() {
+        return isNew;
+    }
+
+    public int blockSize() {
+        return blocksize;
+    }
+
+    /**
+     * Returns the mapped segment holding the block, mapping it if
+     * the file is long enough, or null if the block must be
+     * transferred with channel calls.
+     */
+    private MappedByteBuffer segment(OpenFile f, int blknum) throws IOException {
+        if (mode != IoMode.MMAP)
+            return null;
+        int index = blknum / segmentBlocks;
+        MappedByteBuffer[] segs = f.segments;
+        if (index < segs.length && segs[index] != null)
+            return segs[index];
+        f.growth.lock();
+        try {
+            long end = (long) (index + 1) * segmentBlocks * blocksize;
+            if (f.channel.size() < end)
+                return null; // mapping would grow the file
+            if (index >= f.segments.length)
+                f.segments = Arrays.copyOf(f.segments, index + 1);
+            if (f.segments[index] == null)
+                f.segments[index] = f.channel.map(FileChannel.MapMode.READ_WRITE,
+                        end - (long) segmentBlocks * blocksize, (long) segmentBlocks * blocksize);
+            return f.segments[index];
+        } finally {
+            f.growth.unlock();
+        }
+    }
+
+    private int segmentOffset(int blknum) {
+        return (blknum % segmentBlocks) * blocksize;
+    }
+
+    /**
+     * Returns true if the buffer can be transferred as is:
+     * always, unless files are opened for direct I/O, in which
+     * case the buffer must be direct and aligned in memory.
+     */
+    private boolean isAligned(ByteBuffer bb) {
+        return mode != IoMode.DIRECT || (bb.isDirect() && bb.alignmentOffset(0, alignment) == 0);
+    }
+
+    /**
+     * Allocates a zeroed buffer of whole blocks that can be
+     * transferred to and from the files.
+     */
+    private ByteBuffer allocate(int size) {
+        if (mode != IoMode.DIRECT)
+            return ByteBuffer.allocate(size);
+        return ByteBuffer.allocateDirect(size + alignment - 1).alignedSlice(alignment).limit(size).slice();
+    }
+
+    /**
+     * Extends the file by whole extents until the given block is allocated.
+     * Appenders that need the same extent wait for the first one to write it.
+     * Zeros are only written past the current end of the file, so a block
+     * that was already written through a larger block number is kept.
+     * The new block count is saved once the extent's zeros are written.
+     * Only the file's own lock is held, so appends to other files
+     * go on meanwhile.
+     */
+    private void extend(OpenFile f, int blknum) throws IOException {
+        f.growth.lock();
+        try {
+            while (blknum >= f.allocated) {
+                long end = (long) (f.allocated + extentSize) * blocksize;
+                long pos = Math.max((long) f.allocated * blocksize, f.channel.size());
+                if (pos < end) {
+                    ByteBuffer zeros = allocate((int) (end - pos));
+                    while (zeros.hasRemaining())
+                        pos += f.channel.write(zeros, pos);
+                }
+                f.saveCount(ALLOCATED_POS, f.allocated + extentSize);
+                f.allocated += extentSize;
+            }
+        } finally {
+            f.growth.unlock();
+        }
+    }
+
+    private OpenFile getFile(String filename) throws IOException {
+        OpenFile f = openFiles.get(filename);
+        if (f != null)
+            return f;
+        synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+                FileChannel channel = FileChannel.open(new File(dbDirectory, filename).toPath(), openOptions());
+                FileChannel sizeChannel = FileChannel.open(new File(dbDirectory, filename + SIZE_SUFFIX).toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.SYNC);
+                f = new OpenFile(channel, sizeChannel);
+                openFiles.put(filename, f);
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Returns the options with which files are opened. Writes are
+     * synchronous, with the file's metadata, as in "rws" mode.
+     */
+    private OpenOption[] openOptions() {
+        List<OpenOption> options = new ArrayList<>(List.of(StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.SYNC));
+        if (mode == IoMode.DIRECT)
+            options.add(ExtendedOpenOption.DIRECT);
+        return options.toArray(new OpenOption[0]);
+    }
+
+    /**
+     * An open file and its block counters.
+     * Both counters are kept in a small companion file: the number of
+     * blocks allocated to the file, rewritten each time an extent is
+     * added, after the extent's zeros are on disk, and the number of
+     * blocks handed out, rewritten by every append before it returns.
+     * A reopened file has the size that was handed out; the rest of
+     * its last extent is handed out by later appends.
+     * Appenders waiting to save the size find it already covered
+     * when an appender of a later block saved it first, so a burst
+     * of appends costs fewer writes than blocks.
+     * A companion file written before the handed-out count was kept
+     * gives the file all its allocated blocks, and a file without a
+     * companion counts every whole block it holds.
+     */
+    private class OpenFile {
+        final FileChannel channel;
+        final FileChannel sizeChannel;
+        final AtomicInteger size; // blocks handed out
+        volatile int allocated; // blocks present in the file
+        volatile MappedByteBuffer[] segments = new MappedByteBuffer[0]; // replaced when grown, under growth
+        final ReentrantLock growth = new ReentrantLock(); // held to extend the file or map a segment
+        private final ReentrantLock saving = new ReentrantLock(); // held to save the handed-out count
+        private int savedSize; // handed-out count on disk, under saving
+
+        OpenFile(FileChannel channel, FileChannel sizeChannel) throws IOException {
+            this.channel = channel;
+            this.sizeChannel = sizeChannel;
+            ByteBuffer counts = ByteBuffer.allocate(2 * Integer.BYTES);
+            int read = Math.max(sizeChannel.read(counts, 0), 0);
+            allocated = read >= Integer.BYTES ? counts.getInt(ALLOCATED_POS)
+                    : (int) (channel.size() / blocksize);
+            savedSize = read == counts.capacity() ? counts.getInt(SIZE_POS) : allocated;
+            size = new AtomicInteger(savedSize);
+        }
+
+        /**
+         * Saves the handed-out count, unless a count covering the
+         * given number of blocks has already been saved.
+         */
+        void saveSize(int blocks) throws IOException {
+            saving.lock();
+            try {
+                if (savedSize >= blocks)
+                    return;
+                saveCount(SIZE_POS, blocks);
+                savedSize = blocks;
+            } finally {
+                saving.unlock();
+            }
+        }
+
+        /**
+         * Writes a block count at the given position of the companion file.
+         */
+        void saveCount(int pos, int blocks) throws IOException {
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).putInt(0, blocks);
+            while (count.hasRemaining())
+                sizeChannel.write(count, pos + count.position());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import simpledb.log.LogMgr;
+
+/**
+ * Checks that reopening a database keeps every block of its files,
+ * including blocks that hold only zeros, and no block that was never
+ * appended, and that the log continues where it left off even though
+ * its file has preallocated blocks. Appends from many threads, to one
+ * file and to several, must all be counted after a reopen.
+ *
+ * Usage: java simpledb.file.FileReopenTest
+ */
+public class FileReopenTest {
+    private static final int THREADS = 8;
+    private static final int APPENDS = 200; // per thread and file
+
+    public static void main(String[] args) {
+        File dir = new File("filereopentest" + System.nanoTime());
+        FileMgr fm = new FileMgr(dir, 400);
+        fm.setExtentSize(8);
+        Page p = fm.newPage();
+        p.setInt(0, 42);
+        BlockId written = fm.append("data");
+        fm.write(written, p);
+        BlockId zeroed = fm.append("data");
+        fm.write(zeroed, fm.newPage());
+        BlockId unwritten = fm.append("data");
+
+        FileMgr reopened = new FileMgr(dir, 400);
+        reopened.setExtentSize(1);
+        check(reopened.length("data") == 3, "reopened with " + reopened.length("data") + " blocks, not 3");
+        BlockId next = reopened.append("data");
+        check(next.number() == unwritten.number() + 1, "block number " + next.number() + " handed out");
+        check(new FileMgr(dir, 400).length("data") == 4, "a reopened file lost its next append");
+        reopened.read(written, p);
+        check(p.getInt(0) == 42, "written block changed");
+
+        LogMgr lm = new LogMgr(fm, "log");
+        for (int i = 0; i < 100; i++)
+            lm.append(record(i));
+        lm.flush(100);
+        LogMgr relog = new LogMgr(new FileMgr(dir, 400), "log");
+        for (int i = 100; i < 200; i++)
+            relog.append(record(i));
+        List<Integer> seen = new ArrayList<>();
+        Iterator<byte[]> it = relog.iterator();
+        while (it.hasNext())
+            seen.add(new Page(it.next()).getInt(0));
+        check(seen.size() == 200, "log has " + seen.size() + " records after reopen");
+        for (int i = 0; i < seen.size(); i++)
+            check(seen.get(i) == 199 - i, "log record " + i + " is " + seen.get(i));
+
+        FileMgr shared = new FileMgr(dir, 400);
+        shared.setExtentSize(4);
+        Thread[] appenders = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            String own = "own" + t;
+            appenders[t] = new Thread(() -> {
+                for (int i = 0; i < APPENDS; i++) {
+                    shared.append("shared");
+                    shared.append(own);
+                }
+            });
+            appenders[t].start();
+        }
+        for (Thread t : appenders)
+            join(t);
+        FileMgr after = new FileMgr(dir, 400);
+        check(after.length("shared") == THREADS * APPENDS, "shared file has " + after.length("shared") + " blocks");
+        for (int t = 0; t < THREADS; t++)
+            check(after.length("own" + t) == APPENDS, "file own" + t + " has " + after.length("own" + t) + " blocks");
+        System.out.println("FileReopenTest passed");
+    }
+
+    private static byte[] record(int i) {
+        Page p = new Page(new byte[Integer.BYTES]);
+        p.setInt(0, i);
+        return p.contents().array();
+    }
+
+    private static void join(Thread t) {
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
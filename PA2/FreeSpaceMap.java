@@ -0,0 +1,100 @@
+package simpledb.record;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks how much room each block of a file of slotted pages has,
+ * so that an insert can find a block with enough room without
+ * probing blocks one by one.
+ * Key features:
+ * - Blocks are grouped into a fixed number of categories by free space,
+ * so finding a block looks at a bounded number of categories no matter
+ * how large the file is
+ * - A block is only returned from a category whose smallest amount of
+ * free space is enough for the request
+ * - The map is kept in memory and is a hint: a change that is rolled back
+ * can leave it stale, so callers check the block they are given and
+ * report its actual free space
+ * - The blocks of an existing file are added as they are first visited
+ * One map is shared by all the transactions that use the file.
+ */
+public class FreeSpaceMap {
+    private static final int CATEGORIES = 32;
+
+    private final String filename;
+    private final int blocksize;
+    private final List<Set<Integer>> buckets = new ArrayList<>(); // block numbers, by category
+    private final Map<Integer, Integer> categories = new HashMap<>(); // block number -> category
+    private int scanned = 0; // blocks below this have been offered for a visit
+
+    /**
+     * Create an empty map for the specified file.
+     *
+     * @param filename  the name of the file
+     * @param blocksize the block size
+     */
+    public FreeSpaceMap(String filename, int blocksize) {
+        this.filename = filename;
+        this.blocksize = blocksize;
+        for (int i = 0; i <= CATEGORIES; i++)
+            buckets.add(new LinkedHashSet<>());
+    }
+
+    public String fileName() {
+        return filename;
+    }
+
+    /**
+     * Record the free space of a block.
+     *
+     * @param blknum the block number
+     * @param free   the length of the largest record the block accepts
+     */
+    public synchronized void update(int blknum, int free) {
+        int category = (int) ((long) free * CATEGORIES / blocksize);
+        Integer old = categories.put(blknum, category);
+        if (old != null)
+            buckets.get(old).remove(blknum);
+        buckets.get(category).add(blknum);
+    }
+
+    /**
+     * Return a block that had room for a record of the specified
+     * length when it was last updated.
+     *
+     * @param length the length of the record
+     * @return a block number, or -1 if no known block has room
+     */
+    public synchronized int find(int length) {
+        int first = (int) (((long) length * CATEGORIES + blocksize - 1) / blocksize);
+        for (int c = first; c <= CATEGORIES; c++) {
+            Iterator<Integer> iter = buckets.get(c).iterator();
+            if (iter.hasNext())
+                return iter.next();
+        }
+        return -1;
+    }
+
+    /**
+     * Return a block of the file whose free space is not known yet,
+     * so that the caller can visit it and update the map.
+     * Each block is returned at most once.
+     *
+     * @param size the current number of blocks in the file
+     * @return a block number, or -1 if every block is known
+     */
+    public synchronized int nextUnknown(int size) {
+        while (scanned < size) {
+            int blknum = scanned++;
+            if (!categories.containsKey(blknum))
+                return blknum;
+        }
+        return -1;
+    }
+}
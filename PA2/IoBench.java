@@ -0,0 +1,90 @@
+package simpledb.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares the file manager's I/O modes on sequential and random
+ * block access. For each mode, a fresh file of the given number of
+ * blocks is created and filled, and then the benchmark times a
+ * sequential read of every block, the same number of random reads,
+ * and a smaller number of random writes (each write is forced to disk),
+ * first one at a time and then submitted asynchronously.
+ *
+ * Usage: java simpledb.file.IoBench dir [blocks] [blocksize]
+ */
+public class IoBench {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: IoBench dir [blocks] [blocksize]");
+            return;
+        }
+        int blocks = (args.length > 1) ? Integer.parseInt(args[1]) : 16384;
+        int blocksize = (args.length > 2) ? Integer.parseInt(args[2]) : 4096;
+        for (IoMode mode : IoMode.values())
+            run(new File(args[0], "iobench-" + mode.name().toLowerCase()), mode, blocks, blocksize);
+    }
+
+    private static void run(File dir, IoMode mode, int blocks, int blocksize) {
+        FileMgr fm = new FileMgr(dir, blocksize, mode);
+        fm.setExtentSize(1024);
+        String filename = "bench" + System.nanoTime();
+        Page p = fm.newPage();
+        for (int i = 0; i < blocks; i++) {
+            BlockId blk = fm.append(filename);
+            p.setInt(0, i);
+            fm.write(blk, p);
+        }
+
+        Random rand = new Random(42);
+        long start = System.nanoTime();
+        long check = 0;
+        for (int i = 0; i < blocks; i++) {
+            fm.read(new BlockId(filename, i), p);
+            check += p.getInt(0);
+        }
+        double seqRead = rate(blocks, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            fm.read(new BlockId(filename, rand.nextInt(blocks)), p);
+            check += p.getInt(0);
+        }
+        double randRead = rate(blocks, start);
+
+        int writes = Math.max(1, blocks / 8);
+        start = System.nanoTime();
+        for (int i = 0; i < writes; i++) {
+            int blknum = rand.nextInt(blocks);
+            p.setInt(0, blknum);
+            fm.write(new BlockId(filename, blknum), p);
+        }
+        double randWrite = rate(writes, start);
+
+        Page[] pages = new Page[writes];
+        for (int i = 0; i < writes; i++)
+            pages[i] = fm.newPage();
+        start = System.nanoTime();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (int i = 0; i < writes; i++) {
+            int blknum = rand.nextInt(blocks);
+            pages[i].setInt(0, blknum);
+            pending.add(fm.writeAsync(new BlockId(filename, blknum), pages[i]));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        double asyncWrite = rate(writes, start);
+
+        new File(dir, filename).delete();
+        System.out.printf("%-7s seq read %10.0f blk/s  rand read %10.0f blk/s  rand write %8.0f blk/s"
+                + "  async rand write %8.0f blk/s  (%d)%n",
+                mode, seqRead, randRead, randWrite, asyncWrite, check);
+    }
+
+    private static double rate(int ops, long start) {
+        return ops * 1e9 / Math.max(System.nanoTime() - start, 1);
+    }
+}
@@ -0,0 +1,29 @@
+package simpledb.file;
+
+/**
+ * How the file manager transfers blocks between pages and files.
+ */
+public enum IoMode {
+    /**
+     * Each block is read and written with a channel call.
+     */
+    CHANNEL,
+
+    /**
+     * Data files are mapped into memory in large segments.
+     * Reads copy from the mapping without a system call, and writes
+     * copy into it and force the written range to disk.
+     * Blocks past the last complete segment use channel calls.
+     */
+    MMAP,
+
+    /**
+     * Files are opened for direct I/O, bypassing the operating
+     * system's page cache, so that each block is cached only in the
+     * buffer pool. Blocks are transferred with channel calls from
+     * pages aligned in memory; other pages, such as log pages, are
+     * copied through an aligned buffer. The block size must be a
+     * multiple of the file system's block size.
+     */
+    DIRECT
+}
@@ -0,0 +1,92 @@
+package simpledb.index.bplus;
+
+import simpledb.file.Page;
+
+/**
+ * The type of the keys of a B+-tree, which determines how a key
+ * is stored in a node. Every key of a type takes the same space,
+ * so the entries of a node have a fixed size.
+ * Keys are compared in place, without being read out of the page.
+ */
+public abstract class KeyType<K> {
+    /**
+     * Integer keys.
+     */
+    public static final KeyType<Integer> INT = new KeyType<>(Integer.BYTES) {
+        @Override
+        Integer get(Page p, int offset) {
+            return p.getInt(offset);
+        }
+
+        @Override
+        void put(Page p, int offset, Integer key) {
+            p.setInt(offset, key);
+        }
+
+        @Override
+        int compare(Page p, int offset, Integer key) {
+            return Integer.compare(p.getInt(offset), key);
+        }
+
+        @Override
+        int compare(Integer k1, Integer k2) {
+            return Integer.compare(k1, k2);
+        }
+    };
+
+    /**
+     * Returns the type of string keys of at most the specified length.
+     *
+     * @param maxLength the length of the longest key
+     * @return the key type
+     */
+    public static KeyType<String> string(int maxLength) {
+        return new KeyType<>(Page.maxLength(maxLength)) {
+            @Override
+            String get(Page p, int offset) {
+                return p.getString(offset);
+            }
+
+            @Override
+            void put(Page p, int offset, String key) {
+                if (key.length() > maxLength)
+                    throw new IllegalArgumentException("key longer than " + maxLength + " characters: " + key);
+                p.setString(offset, key);
+            }
+
+            @Override
+            int compare(Page p, int offset, String key) {
+                return p.compareString(offset, key);
+            }
+
+            @Override
+            int compare(String k1, String k2) {
+                return k1.compareTo(k2);
+            }
+        };
+    }
+
+    private final int size;
+
+    private KeyType(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of bytes a key takes in a node.
+     */
+    int size() {
+        return size;
+    }
+
+    abstract K get(Page p, int offset);
+
+    abstract void put(Page p, int offset, K key);
+
+    /**
+     * Compares the key stored at the offset with the given key.
+     */
+    abstract int compare(Page p, int offset, K key);
+
+    abstract int compare(K k1, K k2);
+}
@@ -0,0 +1,57 @@
+package simpledb.tx.concurrency;
+
+/**
+ * A runtime exception indicating that the transaction
+ * needs to abort because a lock could not be obtained.
+ * The exception records why Wait-Die aborted the transaction
+ * and which transaction held the conflicting lock.
+ * 
+ * @author Edward Sciore
+ */
+@SuppressWarnings("serial")
+public class LockAbortException extends RuntimeException {
+
+    /**
+     * The reasons a lock request can be aborted.
+     */
+    public enum Reason {
+        YOUNGER_THAN_S_HOLDER, // X-lock request conflicts with an older S-lock holder
+        YOUNGER_THAN_X_HOLDER, // request conflicts with an older X-lock holder
+        UPGRADE_CONFLICT, // S-to-X upgrade conflicts with an older S-lock holder
+        INTERRUPTED // the waiting thread was interrupted
+    }
+
+    private Reason reason;
+    private int holderTxId; // ID of the conflicting lock holder, or -1 if none
+
+    /**
+     * Creates an exception for an aborted request.
+     * 
+     * @param reason     why the request was aborted
+     * @param holderTxId the ID of the transaction holding the conflicting lock,
+     *                   or -1 if there is none
+     */
+    public LockAbortException(Reason reason, int holderTxId) {
+        super(reason + (holderTxId >= 0 ? " (holder transaction " + holderTxId + ")" : ""));
+        this.reason = reason;
+        this.holderTxId = holderTxId;
+    }
+
+    /**
+     * Returns why the request was aborted.
+     * 
+     * @return the abort reason
+     */
+    public Reason reason() {
+        return reason;
+    }
+
+    /**
+     * Returns the ID of the transaction holding the conflicting lock.
+     * 
+     * @return the holder's transaction ID, or -1 if there was none
+     */
+    public int holderTxId() {
+        return holderTxId;
+    }
+}
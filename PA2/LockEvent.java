@@ -0,0 +1,58 @@
+package simpledb.tx.concurrency;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import simpledb.file.BlockId;
+
+/**
+ * A flight recorder event for a lock request to the {@link LockTable}
+ * that was granted at once, granted after waiting, or made the
+ * transaction abort under Wait-Die.
+ */
+@Name("simpledb.Lock")
+@Label("Lock Request")
+@Category({ "SimpleDB", "Concurrency" })
+@StackTrace(false)
+class LockEvent extends jdk.jfr.Event {
+    @Label("Transaction")
+    int txId;
+
+    @Label("File")
+    String fileName;
+
+    @Label("Block")
+    int block;
+
+    @Label("Mode")
+    @Description("S or X")
+    String mode;
+
+    @Label("Outcome")
+    @Description("granted, waited or aborted")
+    String outcome;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(int txId, BlockId blk, byte mode, byte outcome, long waitStart) {
+        if (!shouldCommit())
+            return;
+        this.txId = txId;
+        this.fileName = blk.fileName();
+        this.block = blk.number();
+        this.mode = (mode == LockTrace.MODE_X) ? "X" : "S";
+        this.outcome = (outcome == LockTrace.ABORTED) ? "aborted"
+                : (outcome == LockTrace.WAITED) ? "waited" : "granted";
+        this.waitTime = (waitStart == 0) ? 0 : System.nanoTime() - waitStart;
+        commit();
+    }
+}
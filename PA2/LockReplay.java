@@ -0,0 +1,194 @@
+package simpledb.tx.concurrency;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import simpledb.file.BlockId;
+
+/**
+ * Replays a recorded {@link LockTrace} against a lock table.
+ * The trace is split into one script per transaction: the S- and X-lock
+ * requests it made, in order. Scripts are started in the order the
+ * transactions first appeared and run on a fixed number of threads, as fast
+ * as possible. A transaction that is aborted releases its locks and stops;
+ * one that finishes its script releases its locks and counts as committed.
+ * The simulator reports throughput, abort rate and the distribution of the
+ * time each request spent in the lock table.
+ *
+ * Any lock table implementation or policy can be compared by supplying
+ * a {@link Target}; the default target is {@link LockTable}.
+ *
+ * Usage: java simpledb.tx.concurrency.LockReplay tracefile [threads]
+ */
+public class LockReplay {
+
+    /**
+     * The lock table being measured.
+     */
+    public interface Target {
+        void sLock(BlockId blk, int txId);
+
+        void xLock(BlockId blk, int txId);
+
+        void unlock(BlockId blk, int txId);
+    }
+
+    private final Map<Integer, List<LockTrace.Event>> scripts = new LinkedHashMap<>();
+
+    /**
+     * Creates a simulator for the given trace.
+     *
+     * @param events the trace events, oldest first
+     */
+    public LockReplay(List<LockTrace.Event> events) {
+        for (LockTrace.Event e : events)
+            if (e.mode != LockTrace.MODE_UNLOCK)
+                scripts.computeIfAbsent(e.txId, id -> new ArrayList<>()).add(e);
+    }
+
+    /**
+     * Returns a target backed by a fresh {@link LockTable}.
+     */
+    public static Target lockTable() {
+        LockTable lt = new LockTable();
+        return new Target() {
+            public void sLock(BlockId blk, int txId) {
+                lt.sLock(blk, txId);
+            }
+
+            public void xLock(BlockId blk, int txId) {
+                lt.xLock(blk, txId);
+            }
+
+            public void unlock(BlockId blk, int txId) {
+                lt.unlock(blk, txId);
+            }
+        };
+    }
+
+    /**
+     * Replays every transaction in the trace against a new target.
+     *
+     * @param target  creates the lock table to replay against
+     * @param threads the number of concurrently running transactions
+     * @return the measurements
+     */
+    public Result run(Supplier<Target> target, int threads) throws InterruptedException {
+        Target lt = target.get();
+        AtomicLong commits = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        long[] waits = new long[scripts.values().stream().mapToInt(List::size).sum()];
+        AtomicLong numWaits = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (Map.Entry<Integer, List<LockTrace.Event>> script : scripts.entrySet()) {
+            pool.execute(() -> {
+                int txId = script.getKey();
+                Set<BlockId> held = new LinkedHashSet<>();
+                try {
+                    for (LockTrace.Event e : script.getValue()) {
+                        long t = System.nanoTime();
+                        try {
+                            if (e.mode == LockTrace.MODE_X)
+                                lt.xLock(e.blk, txId);
+                            else
+                                lt.sLock(e.blk, txId);
+                        } finally {
+                            waits[(int) numWaits.getAndIncrement()] = System.nanoTime() - t;
+                        }
+                        held.add(e.blk);
+                    }
+                    commits.incrementAndGet();
+                } catch (LockAbortException e) {
+                    aborts.incrementAndGet();
+                }
+                for (BlockId blk : held)
+                    lt.unlock(blk, txId);
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = Arrays.copyOf(waits, (int) numWaits.get());
+        Arrays.sort(sorted);
+        return new Result(commits.get(), aborts.get(), elapsed, sorted);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: LockReplay tracefile [threads]");
+            return;
+        }
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        List<LockTrace.Event> events;
+        try (InputStream in = new FileInputStream(args[0])) {
+            events = LockTrace.read(in);
+        }
+        LockReplay replay = new LockReplay(events);
+        System.out.println(replay.run(LockReplay::lockTable, threads));
+    }
+
+    /**
+     * The measurements of one replay.
+     */
+    public static class Result {
+        private final long commits, aborts, elapsedNanos;
+        private final long[] sortedWaits; // per-request time in the lock table
+
+        Result(long commits, long aborts, long elapsedNanos, long[] sortedWaits) {
+            this.commits = commits;
+            this.aborts = aborts;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedWaits = sortedWaits;
+        }
+
+        /**
+         * Returns committed transactions per second.
+         */
+        public double throughput() {
+            return commits * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        /**
+         * Returns the fraction of transactions that were aborted.
+         */
+        public double abortRate() {
+            long total = commits + aborts;
+            return (total == 0) ? 0 : (double) aborts / total;
+        }
+
+        /**
+         * Returns the given percentile of per-request lock time, in microseconds.
+         *
+         * @param p a percentile between 0 and 100
+         */
+        public long waitPercentile(double p) {
+            if (sortedWaits.length == 0)
+                return 0;
+            int i = (int) Math.ceil(p / 100 * sortedWaits.length) - 1;
+            return sortedWaits[Math.max(0, Math.min(i, sortedWaits.length - 1))] / 1000;
+        }
+
+        public String toString() {
+            return String.format("commits=%d aborts=%d throughput=%.1f tx/s abort rate=%.3f "
+                    + "wait us: p50=%d p90=%d p99=%d max=%d",
+                    commits, aborts, throughput(), abortRate(),
+                    waitPercentile(50), waitPercentile(90), waitPercentile(99), waitPercentile(100));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb.tx.concurrency;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import simpledb.file.BlockId;
+
+/**
+ * Always-on statistics for the lock table.
+ * Counters are {@link LongAdder}s so that recording never contends,
+ * and nothing beyond a request count is recorded on the S-lock fast path.
+ * Key features:
+ * - Request and wait counts per lock mode
+ * - A wait-time histogram per lock mode with power-of-two microsecond buckets
+ * - Abort counts broken down by {@link LockAbortException.Reason}
+ * - The top-N blocks by total wait time, estimated by a summary of
+ * fixed size, so memory and the cost of a snapshot stay bounded however
+ * many blocks are waited on
+ */
+public class LockStats implements LockStatsMXBean {
+    static final int NUM_BUCKETS = 24; // the last bucket holds waits of ~8s or more
+    private static final int TOP_N = 10;
+    private static final int TRACKED_BLOCKS = 64; // the most blocks the wait summary holds
+
+    private final LongAdder sRequests = new LongAdder();
+    private final LongAdder xRequests = new LongAdder();
+    private final LongAdder[] sWaitHist = newBuckets();
+    private final LongAdder[] xWaitHist = newBuckets();
+    private final Map<LockAbortException.Reason, LongAdder> aborts = new EnumMap<>(LockAbortException.Reason.class);
+    private final BlockWaits blockWaits = new BlockWaits(TRACKED_BLOCKS);
+
+    public LockStats() {
+        for (LockAbortException.Reason r : LockAbortException.Reason.values())
+            aborts.put(r, new LongAdder());
+    }
+
+    /**
+     * Records a lock request.
+     * 
+     * @param exclusive true for an X-lock request
+     */
+    void recordRequest(boolean exclusive) {
+        (exclusive ? xRequests : sRequests).increment();
+    }
+
+    /**
+     * Records a request that had to wait before it was granted or aborted.
+     * 
+     * @param blk       the block waited on
+     * @param exclusive true for an X-lock request
+     * @param nanos     how long the request waited
+     */
+    void recordWait(BlockId blk, boolean exclusive, long nanos) {
+        long micros = nanos / 1000;
+        (exclusive ? xWaitHist : sWaitHist)[bucketFor(micros)].increment();
+        blockWaits.add(blk, micros);
+    }
+
+    /**
+     * Records an aborted request and returns the exception to throw.
+     * 
+     * @param reason     why the request was aborted
+     * @param holderTxId the conflicting holder's transaction ID
+     * @return the exception describing the abort
+     */
+    LockAbortException abort(LockAbortException.Reason reason, int holderTxId) {
+        aborts.get(reason).increment();
+        return new LockAbortException(reason, holderTxId);
+    }
+
+    /**
+     * Returns a consistent-enough copy of the current statistics.
+     * Counters are read one at a time, so concurrent updates may be
+     * split across two snapshots but are never lost.
+     * 
+     * @param topN the number of most-waited-on blocks to include,
+     *             of the 64 that are tracked
+     * @return the statistics snapshot
+     */
+    public Snapshot snapshot(int topN) {
+        return new Snapshot(sRequests.sum(), xRequests.sum(), sum(sWaitHist), sum(xWaitHist),
+                Collections.unmodifiableMap(abortCounts()), Collections.unmodifiableMap(blockWaits.top(topN)));
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server.
+     * 
+     * @param name the JMX object name, e.g. "simpledb:type=LockStats"
+     * @return true if registration succeeded
+     */
+    public boolean registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    public long getSLockRequests() {
+        return sRequests.sum();
+    }
+
+    public long getXLockRequests() {
+        return xRequests.sum();
+    }
+
+    public long getSLockWaits() {
+        return total(sWaitHist);
+    }
+
+    public long getXLockWaits() {
+        return total(xWaitHist);
+    }
+
+    public long[] getSLockWaitHistogram() {
+        return sum(sWaitHist);
+    }
+
+    public long[] getXLockWaitHistogram() {
+        return sum(xWaitHist);
+    }
+
+    public Map<String, Long> getAbortCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<LockAbortException.Reason, Long> e : abortCounts().entrySet())
+            result.put(e.getKey().name(), e.getValue());
+        return result;
+    }
+
+    public Map<String, Long> getTopWaitedBlocks() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<BlockId, Long> e : blockWaits.top(TOP_N).entrySet())
+            result.put(e.getKey().toString(), e.getValue());
+        return result;
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public void reset() {
+        sRequests.reset();
+        xRequests.reset();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            sWaitHist[i].reset();
+            xWaitHist[i].reset();
+        }
+        for (LongAdder a : aborts.values())
+            a.reset();
+        blockWaits.clear();
+    }
+
+    private Map<LockAbortException.Reason, Long> abortCounts() {
+        Map<LockAbortException.Reason, Long> result = new EnumMap<>(LockAbortException.Reason.class);
+        for (Map.Entry<LockAbortException.Reason, LongAdder> e : aborts.entrySet())
+            result.put(e.getKey(), e.getValue().sum());
+        return result;
+    }
+
+    /**
+     * Returns the histogram bucket for a wait of the given length:
+     * bucket i holds waits shorter than 2^i microseconds.
+     */
+    static int bucketFor(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    private static LongAdder[] newBuckets() {
+        LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets[i] = new LongAdder();
+        return buckets;
+    }
+
+    private static long[] sum(LongAdder[] buckets) {
+        long[] result = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++)
+            result[i] = buckets[i].sum();
+        return result;
+    }
+
+    private static long total(LongAdder[] buckets) {
+        long total = 0;
+        for (LongAdder b : buckets)
+            total += b.sum();
+        return total;
+    }
+
+    /**
+     * A space-saving summary of the total wait time per block.
+     * At most a fixed number of blocks are tracked. A wait on an
+     * untracked block evicts the tracked block with the least wait
+     * time, and the new block inherits that total. A block's total
+     * may thus be overstated by at most what it inherited, but a
+     * block with more than 1/capacity of all the wait time is never
+     * evicted. Only waits are recorded, so the monitor is cheap next
+     * to the wait itself.
+     */
+    private static class BlockWaits {
+        private final int capacity;
+        private final Map<BlockId, Long> micros = new HashMap<>();
+
+        BlockWaits(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(BlockId blk, long waited) {
+            Long total = micros.get(blk);
+            if (total == null) {
+                total = 0L;
+                if (micros.size() >= capacity) {
+                    BlockId coldest = null;
+                    for (Map.Entry<BlockId, Long> e : micros.entrySet())
+                        if (coldest == null || e.getValue() < micros.get(coldest))
+                            coldest = e.getKey();
+                    total = micros.remove(coldest);
+                }
+            }
+            micros.put(blk, total + waited);
+        }
+
+        /**
+         * Returns the n blocks with the most wait time mapped
+         * to their totals, longest first.
+         */
+        synchronized Map<BlockId, Long> top(int n) {
+            List<Map.Entry<BlockId, Long>> entries = new ArrayList<>(micros.entrySet());
+            entries.sort((x, y) -> Long.compare(y.getValue(), x.getValue()));
+            Map<BlockId, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < entries.size() && i < n; i++)
+                result.put(entries.get(i).getKey(), entries.get(i).getValue());
+            return result;
+        }
+
+        synchronized void clear() {
+            micros.clear();
+        }
+    }
+
+    /**
+     * An immutable copy of the lock statistics.
+     */
+    public static class Snapshot {
+        private final long sRequests, xRequests;
+        private final long[] sWaitHistogram, xWaitHistogram;
+        private final Map<LockAbortException.Reason, Long> abortCounts;
+        private final Map<BlockId, Long> topWaitedBlocks;
+
+        Snapshot(long sRequests, long xRequests, long[] sWaitHistogram, long[] xWaitHistogram,
+                Map<LockAbortException.Reason, Long> abortCounts, Map<BlockId, Long> topWaitedBlocks) {
+            this.sRequests = sRequests;
+            this.xRequests = xRequests;
+            this.sWaitHistogram = sWaitHistogram;
+            this.xWaitHistogram = xWaitHistogram;
+            this.abortCounts = abortCounts;
+            this.topWaitedBlocks = topWaitedBlocks;
+        }
+
+        public long sLockRequests() {
+            return sRequests;
+        }
+
+        public long xLockRequests() {
+            return xRequests;
+        }
+
+        /**
+         * Returns the wait-time histogram for the given lock mode.
+         * Bucket i counts waits shorter than 2^i microseconds.
+         */
+        public long[] waitHistogram(boolean exclusive) {
+            return (exclusive ? xWaitHistogram : sWaitHistogram).clone();
+        }
+
+        public Map<LockAbortException.Reason, Long> abortCounts() {
+            return abortCounts;
+        }
+
+        /**
+         * Returns the most-waited-on blocks mapped to their total wait
+         * time in microseconds, longest first. A total may include
+         * waits on blocks evicted from the summary before it.
+         */
+        public Map<BlockId, Long> topWaitedBlocks() {
+            return topWaitedBlocks;
+        }
+
+        public String toString() {
+            return "S requests=" + sRequests + ", X requests=" + xRequests
+                    + ", aborts=" + abortCounts + ", top waited=" + topWaitedBlocks;
+        }
+    }
+}
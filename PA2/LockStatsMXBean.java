@@ -0,0 +1,44 @@
+package simpledb.tx.concurrency;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the lock table statistics.
+ * See {@link LockStats} for the meaning of each attribute.
+ */
+public interface LockStatsMXBean {
+
+    long getSLockRequests();
+
+    long getXLockRequests();
+
+    long getSLockWaits();
+
+    long getXLockWaits();
+
+    /**
+     * Returns the S-lock wait-time histogram.
+     * Bucket i counts waits shorter than 2^i microseconds;
+     * the last bucket counts everything longer.
+     */
+    long[] getSLockWaitHistogram();
+
+    /**
+     * Returns the X-lock wait-time histogram, bucketed like
+     * {@link #getSLockWaitHistogram()}.
+     */
+    long[] getXLockWaitHistogram();
+
+    /**
+     * Returns the number of aborts for each {@link LockAbortException.Reason}.
+     */
+    Map<String, Long> getAbortCounts();
+
+    /**
+     * Returns the most-waited-on blocks mapped to their total wait time in
+     * microseconds, longest first.
+     */
+    Map<String, Long> getTopWaitedBlocks();
+
+    void reset();
+}
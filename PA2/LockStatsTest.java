@@ -0,0 +1,60 @@
+package simpledb.tx.concurrency;
+
+import java.util.Map;
+
+import simpledb.file.BlockId;
+
+/**
+ * Checks the lock statistics.
+ * Waits are spread over many more blocks than the summary tracks,
+ * with a few hot blocks among them; the summary must stay bounded,
+ * report the hot blocks first, and empty on reset. Waits must land
+ * in the right histogram bucket, and aborts must be counted by reason.
+ *
+ * Usage: java simpledb.tx.concurrency.LockStatsTest
+ */
+public class LockStatsTest {
+    private static final int COLD_BLOCKS = 100000;
+    private static final int HOT_BLOCKS = 3;
+
+    public static void main(String[] args) {
+        LockStats stats = new LockStats();
+        for (int i = 0; i < COLD_BLOCKS; i++) {
+            stats.recordWait(new BlockId("cold", i), false, 1000);
+            if (i % 100 == 0)
+                for (int h = 0; h < HOT_BLOCKS; h++)
+                    stats.recordWait(new BlockId("hot", h), true, 50_000 * (h + 1));
+        }
+        Map<BlockId, Long> top = stats.snapshot(Integer.MAX_VALUE).topWaitedBlocks();
+        check(top.size() <= 64, "summary holds " + top.size() + " blocks");
+        int rank = HOT_BLOCKS - 1;
+        for (BlockId blk : top.keySet()) {
+            if (rank < 0)
+                break;
+            check(blk.equals(new BlockId("hot", rank)), "expected hot block " + rank + " but found " + blk);
+            rank--;
+        }
+        check(top.get(new BlockId("hot", 0)) >= (COLD_BLOCKS / 100) * 50L, "hot block total understated");
+        check(stats.getTopWaitedBlocks().size() == 10, "MXBean top list is not the top 10");
+
+        long[] hist = stats.snapshot(0).waitHistogram(false);
+        check(hist[LockStats.bucketFor(1)] == COLD_BLOCKS, "1us waits are not in their bucket");
+        check(LockStats.bucketFor(0) == 0 && LockStats.bucketFor(Long.MAX_VALUE) == LockStats.NUM_BUCKETS - 1,
+                "bucket bounds");
+
+        stats.abort(LockAbortException.Reason.UPGRADE_CONFLICT, 1);
+        stats.abort(LockAbortException.Reason.UPGRADE_CONFLICT, 1);
+        check(stats.getAbortCounts().get("UPGRADE_CONFLICT") == 2, "aborts not counted by reason");
+
+        stats.reset();
+        check(stats.snapshot(10).topWaitedBlocks().isEmpty(), "reset kept blocks");
+        check(stats.getSLockWaits() == 0 && stats.getAbortCounts().get("UPGRADE_CONFLICT") == 0,
+                "reset kept counts");
+        System.out.println("LockStatsTest passed");
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
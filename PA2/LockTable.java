@@ -1,9 +1,13 @@
 package simpledb.tx.concurrency;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import simpledb.file.BlockId;
 
@@ -15,149 +19,446 @@ import simpledb.file.BlockId;
  * - Younger transactions abort when requesting locks held by older ones
  * - Older transactions wait for younger ones to release locks
  * - Supports both shared (S) and exclusive (X) locks
- * - Represents X-locks with negative transaction IDs in the lock list
+ * - Uncontended S-locks are granted with a single CAS on a per-block state
+ * word; only X-locks and conflicting requests take the table mutex
+ * - Waiting transactions park on a {@link Condition} rather than an object
+ * monitor, so a transaction running on a virtual thread unmounts while it
+ * waits
+ * - Read-only transactions take anonymous read locks that are held for a
+ * single read, never abort, and are invisible to Wait-Die
+ * - Keeps a version number per block, advanced whenever an X-lock on the
+ * block is released, so optimistic transactions can detect changes.
+ * Versions live in a fixed table of stripes, so blocks that share a
+ * stripe share a version: a change to one looks like a change to the
+ * others, which costs a needless retry but never hides a change
+ * - Records waits and aborts in a {@link LockStats}
+ * - Optionally records every request and release in a {@link LockTrace}
+ * - Reports every request to the flight recorder as a {@link LockEvent}
  */
 class LockTable {
+    private static final int VERSION_STRIPES = 1 << 12; // a power of two
 
     /**
-     * Maps blocks to their current lock holders.
-     * The List<Integer> contains transaction IDs where:
-     * - Positive ID (e.g., 5): Transaction 5 holds a shared (S) lock
-     * - Negative ID (e.g., -5): Transaction 5 holds an exclusive (X) lock
+     * Maps blocks to their lock state.
+     * Entries are created on demand and removed once the block has no holders.
      */
-    private Map<BlockId, List<Integer>> locks = new HashMap<>();
+    private Map<BlockId, LockEntry> locks = new ConcurrentHashMap<>();
+    private AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private AtomicLong versionClock = new AtomicLong();
+    private LockStats stats = new LockStats();
+    private volatile LockTrace trace = null; // null when tracing is off
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final Condition released = mutex.newCondition(); // signalled on every release
+
+    /**
+     * Returns the statistics recorded by this lock table.
+     * 
+     * @return the lock statistics
+     */
+    LockStats stats() {
+        return stats;
+    }
+
+    /**
+     * Starts recording lock events into the given trace,
+     * or stops recording if the trace is null.
+     * 
+     * @param trace the trace to record into, or null
+     */
+    void setTrace(LockTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Returns the version of the block: a number that changes every
+     * time an X-lock on the block is released. The value is stable
+     * while the caller holds any lock on the block, unless another
+     * block in the same stripe is unlocked; it never repeats, so a
+     * changed block never shows its old version.
+     * 
+     * @param blk the block
+     * @return the block's current version
+     */
+    long version(BlockId blk) {
+        return versions.get(stripe(blk));
+    }
+
+    /**
+     * Returns true if a transaction other than the given one
+     * currently holds an X-lock on the block.
+     * 
+     * @param blk  the block
+     * @param txId the ID of the asking transaction
+     * @return true if another transaction may be modifying the block
+     */
+    boolean xLockedByOther(BlockId blk, int txId) {
+        LockEntry entry = locks.get(blk);
+        if (entry == null)
+            return false;
+        int holder = entry.xHolder;
+        return holder != 0 && holder != txId;
+    }
 
     /**
      * Grants a shared (S) lock following Wait-Die protocol.
      * Younger transactions abort when conflicting with older ones' X-locks.
-     * 
+     * The fast path succeeds without touching the table mutex whenever no
+     * writer holds the block.
+     *
      * @param blk  the block to lock
      * @param txId the ID of requesting transaction
      * @throws LockAbortException if Wait-Die requires this transaction to abort
      */
-    public synchronized void sLock(BlockId blk, int txId) {
-        while (true) {
-            List<Integer> txList = locks.get(blk);
+    public void sLock(BlockId blk, int txId) {
+        stats.recordRequest(false);
+        if (tryFastSLock(blk, txId))
+            record(blk, txId, LockTrace.MODE_S, LockTrace.GRANTED, 0);
+        else
+            slowSLock(blk, txId);
+    }
 
-            if (txList == null) {
-                // No existing locks - create new list and grant S-lock
-                txList = new ArrayList<>();
-                locks.put(blk, txList);
-                txList.add(txId);
-                return;
-            }
+    /**
+     * Grants an exclusive (X) lock following Wait-Die protocol.
+     * Younger transactions abort when conflicting with any older transaction's
+     * lock.
+     *
+     * @param blk  the block to lock
+     * @param txId the ID of requesting transaction
+     * @throws LockAbortException if Wait-Die requires this transaction to abort
+     */
+    void xLock(BlockId blk, int txId) {
+        stats.recordRequest(true);
+        mutex.lock();
+        LockEntry entry = entryFor(blk);
+        entry.waiters.incrementAndGet();
+        long waitStart = 0;
+        boolean granted = false;
+        try {
+            while (true) {
+                // Already holds this X-lock
+                if (entry.xHolder == txId) {
+                    granted = true;
+                    return;
+                }
 
-            // Already holds either type of lock - no need to wait
-            if (txList.contains(txId) || txList.contains(-txId)) {
-                return;
-            }
+                int s = entry.state.get();
+                if (s == LockEntry.DEAD) {
+                    // Entry was retired by an unlock - switch to the live one
+                    entry.waiters.decrementAndGet();
+                    entry = entryFor(blk);
+                    entry.waiters.incrementAndGet();
+                    continue;
+                }
 
-            boolean shouldWait = false;
-            // Check for conflicts with X-locks
-            for (int tid : txList) {
-                if (tid < 0) { // Found an X-lock
-                    // Wait-Die check: abort if we're younger than lock holder
-                    if (txId > -tid) {
-                        throw new LockAbortException();
+                boolean ownsS = entry.sHolders.contains(txId);
+                int readers = s & LockEntry.READERS;
+                if ((s & LockEntry.WRITER) == 0 && readers == (ownsS ? 1 : 0)) {
+                    // No conflicts - publish the holder before the writer bit
+                    // so that slow-path readers always see who owns it
+                    entry.xHolder = txId;
+                    if (entry.state.compareAndSet(s, LockEntry.WRITER)) {
+                        entry.sHolders.remove(txId); // X-lock replaces our S-lock
+                        granted = true;
+                        return;
                     }
-                    shouldWait = true;
-                    break;
+                    entry.xHolder = 0;
+                    continue; // a reader slipped in, re-examine
+                }
+
+                // Wait-Die check: abort if we're younger than any lock holder
+                int oldest = entry.oldestHolderExcept(txId);
+                if (oldest != 0 && txId > oldest) {
+                    LockAbortException.Reason reason = (oldest == entry.xHolder)
+                            ? LockAbortException.Reason.YOUNGER_THAN_X_HOLDER
+                            : ownsS ? LockAbortException.Reason.UPGRADE_CONFLICT
+                                    : LockAbortException.Reason.YOUNGER_THAN_S_HOLDER;
+                    throw stats.abort(reason, oldest);
                 }
+
+                // Must wait - other transactions have locks
+                if (waitStart == 0)
+                    waitStart = System.nanoTime();
+                awaitRelease();
             }
+        } finally {
+            entry.waiters.decrementAndGet();
+            if (waitStart != 0)
+                stats.recordWait(blk, true, System.nanoTime() - waitStart);
+            record(blk, txId, LockTrace.MODE_X, outcome(granted, waitStart), waitStart);
+            mutex.unlock();
+        }
+    }
 
-            if (!shouldWait) {
-                // No X-locks found, safe to grant S-lock
-                txList.add(txId);
+    /**
+     * Releases both S and X locks held by the transaction on the specified block.
+     * A released S-lock only takes the table mutex when some transaction is
+     * waiting on the block; an X-lock release always does, and notifies all
+     * waiting transactions to check if they can now acquire their locks.
+     *
+     * @param blk  the block whose locks should be released
+     * @param txId the ID of transaction releasing its locks
+     */
+    void unlock(BlockId blk, int txId) {
+        record(blk, txId, LockTrace.MODE_UNLOCK, LockTrace.RELEASED, 0);
+        LockEntry entry = locks.get(blk);
+        if (entry == null)
+            return;
+
+        if (entry.sHolders.remove(txId)) {
+            int s = entry.state.decrementAndGet();
+            if (entry.waiters.get() > 0)
+                wakeWaiters();
+            else if (s == 0)
+                retire(blk, entry);
+            return;
+        }
+
+        mutex.lock();
+        try {
+            if (entry.xHolder != txId)
                 return;
-            }
+            versions.set(stripe(blk), versionClock.incrementAndGet());
+            entry.xHolder = 0;
+            entry.state.set(0);
+            // Remove block entry if no more locks
+            if (entry.waiters.get() == 0)
+                retire(blk, entry);
+            // Wake up all waiting transactions
+            released.signalAll();
+        } finally {
+            mutex.unlock();
+        }
+    }
 
-            // Must wait - older transaction has X-lock
+    /**
+     * Grants an anonymous shared lock for the duration of a single read.
+     * The lock is counted in the block's state word, so writers wait for
+     * the read to finish, but no holder is registered; it never causes
+     * a writer to abort. The reader waits for any X-lock to be released
+     * instead of applying Wait-Die, which cannot deadlock because it
+     * holds no other lock while it waits.
+     *
+     * @param blk the block to be read
+     */
+    void readLock(BlockId blk) {
+        while (true) {
+            LockEntry entry = entryFor(blk);
+            int s = entry.state.get();
+            if (s == LockEntry.DEAD)
+                continue;
+            if ((s & LockEntry.WRITER) == 0) {
+                if (entry.state.compareAndSet(s, s + 1))
+                    return;
+                continue;
+            }
+            mutex.lock();
+            entry.waiters.incrementAndGet();
             try {
-                wait();
-            } catch (InterruptedException e) {
-                throw new LockAbortException();
+                // a retired entry also has the writer bit set; retry on the live one
+                for (int cur = entry.state.get(); cur != LockEntry.DEAD
+                        && (cur & LockEntry.WRITER) != 0; cur = entry.state.get())
+                    awaitRelease();
+            } finally {
+                entry.waiters.decrementAndGet();
+                mutex.unlock();
             }
         }
     }
 
     /**
-     * Grants an exclusive (X) lock following Wait-Die protocol.
-     * Younger transactions abort when conflicting with any older transaction's
-     * lock.
-     * 
-     * @param blk  the block to lock
-     * @param txId the ID of requesting transaction
-     * @throws LockAbortException if Wait-Die requires this transaction to abort
+     * Releases a lock granted by {@link #readLock(BlockId)}.
+     *
+     * @param blk the block that was read
      */
-    synchronized void xLock(BlockId blk, int txId) {
+    void readUnlock(BlockId blk) {
+        LockEntry entry = locks.get(blk);
+        int s = entry.state.decrementAndGet();
+        if (entry.waiters.get() > 0)
+            wakeWaiters();
+        else if (s == 0)
+            retire(blk, entry);
+    }
+
+    /**
+     * Attempts to grant an S-lock with a CAS on the block's state word.
+     * The transaction is registered as a holder before the CAS, so a writer
+     * that sees the reader count also sees the holder for its Wait-Die check.
+     *
+     * @return true if the lock was granted, false if a writer holds the block
+     */
+    private boolean tryFastSLock(BlockId blk, int txId) {
         while (true) {
-            List<Integer> txList = locks.get(blk);
+            LockEntry entry = entryFor(blk);
+            // Already holds either type of lock - no need to wait
+            if (entry.xHolder == txId || entry.sHolders.contains(txId))
+                return true;
 
-            if (txList == null) {
-                // No existing locks - create new list and grant X-lock
-                txList = new ArrayList<>();
-                locks.put(blk, txList);
-                txList.add(-txId); // Negative ID indicates X-lock
-                return;
+            entry.sHolders.add(txId);
+            while (true) {
+                int s = entry.state.get();
+                if (s == LockEntry.DEAD || (s & LockEntry.WRITER) != 0)
+                    break;
+                if (entry.state.compareAndSet(s, s + 1))
+                    return true;
             }
+            entry.sHolders.remove(txId);
+            // A writer may have counted us as a holder while we backed off
+            if (entry.waiters.get() > 0)
+                wakeWaiters();
+            if (entry.state.get() != LockEntry.DEAD)
+                return false;
+        }
+    }
 
-            // Already holds this X-lock
-            if (txList.contains(-txId)) {
-                return;
-            }
+    /**
+     * Grants an S-lock when the fast path found an X-lock on the block.
+     * Waits for older writers and aborts when a younger one is holding it.
+     */
+    private void slowSLock(BlockId blk, int txId) {
+        mutex.lock();
+        LockEntry entry = entryFor(blk);
+        entry.waiters.incrementAndGet();
+        long waitStart = 0;
+        boolean granted = false;
+        try {
+            while (true) {
+                int s = entry.state.get();
+                if (s == LockEntry.DEAD) {
+                    entry.waiters.decrementAndGet();
+                    entry = entryFor(blk);
+                    entry.waiters.incrementAndGet();
+                    continue;
+                }
 
-            boolean shouldWait = false;
-            // Check for conflicts with other transactions' locks
-            for (int tid : txList) {
-                if (tid != txId) { // Skip our own S-lock if we have one
-                    int holderTx = (tid < 0) ? -tid : tid;
-                    // Wait-Die check: abort if we're younger than any lock holder
-                    if (txId > holderTx) {
-                        throw new LockAbortException();
+                if ((s & LockEntry.WRITER) != 0) {
+                    int holder = entry.xHolder;
+                    if (holder == txId) {
+                        granted = true;
+                        return;
                     }
-                    shouldWait = true;
-                    break;
+                    // Wait-Die check: abort if we're younger than lock holder
+                    if (txId > holder)
+                        throw stats.abort(LockAbortException.Reason.YOUNGER_THAN_X_HOLDER, holder);
+                    // Must wait - older transaction has X-lock
+                    if (waitStart == 0)
+                        waitStart = System.nanoTime();
+                    awaitRelease();
+                    continue;
                 }
-            }
 
-            if (!shouldWait) {
-                // No conflicts, safe to grant X-lock
-                txList.remove(Integer.valueOf(txId)); // Remove S-lock if exists
-                txList.add(-txId);
-                return;
+                // No X-locks found, safe to grant S-lock
+                entry.sHolders.add(txId);
+                if (entry.state.compareAndSet(s, s + 1)) {
+                    granted = true;
+                    return;
+                }
+                entry.sHolders.remove(txId);
             }
+        } finally {
+            entry.waiters.decrementAndGet();
+            if (waitStart != 0)
+                stats.recordWait(blk, false, System.nanoTime() - waitStart);
+            record(blk, txId, LockTrace.MODE_S, outcome(granted, waitStart), waitStart);
+            mutex.unlock();
+        }
+    }
 
-            // Must wait - other transactions have locks
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                throw new LockAbortException();
-            }
+    /**
+     * Wakes all waiting transactions so they can re-check their requests.
+     */
+    private void wakeWaiters() {
+        mutex.lock();
+        try {
+            released.signalAll();
+        } finally {
+            mutex.unlock();
         }
     }
 
     /**
-     * Releases both S and X locks held by the transaction on the specified block.
-     * Notifies all waiting transactions to check if they can now acquire their
-     * locks.
-     * 
-     * @param blk  the block whose locks should be released
-     * @param txId the ID of transaction releasing its locks
+     * Records a lock event in the trace, if one is active, and
+     * reports requests to the flight recorder.
      */
-    synchronized void unlock(BlockId blk, int txId) {
-        List<Integer> txList = locks.get(blk);
-        if (txList == null)
-            return;
+    private void record(BlockId blk, int txId, byte mode, byte outcome, long waitStart) {
+        LockTrace t = trace;
+        if (t != null)
+            t.record(blk, txId, mode, outcome);
+        if (mode != LockTrace.MODE_UNLOCK)
+            new LockEvent().emit(txId, blk, mode, outcome, waitStart);
+    }
+
+    private static byte outcome(boolean granted, long waitStart) {
+        if (!granted)
+            return LockTrace.ABORTED;
+        return (waitStart != 0) ? LockTrace.WAITED : LockTrace.GRANTED;
+    }
+
+    /**
+     * Returns the index of the block's version stripe.
+     */
+    private static int stripe(BlockId blk) {
+        int h = blk.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * Returns the live entry for the block, creating it if necessary.
+     */
+    private LockEntry entryFor(BlockId blk) {
+        return locks.computeIfAbsent(blk, b -> new LockEntry());
+    }
+
+    /**
+     * Removes an entry with no holders from the table. The entry is marked
+     * dead first so that a transaction still holding a stale reference
+     * retries against a fresh entry.
+     */
+    private void retire(BlockId blk, LockEntry entry) {
+        if (entry.state.compareAndSet(0, LockEntry.DEAD))
+            locks.remove(blk, entry);
+    }
+
+    /**
+     * Blocks until some lock is released.
+     * Must be called while holding the table mutex.
+     */
+    private void awaitRelease() {
+        try {
+            released.await();
+        } catch (InterruptedException e) {
+            throw stats.abort(LockAbortException.Reason.INTERRUPTED, -1);
+        }
+    }
+
+    /**
+     * The lock state of a single block.
+     * The state word holds the number of S-lock holders in its low bits and
+     * a writer flag above them; -1 marks an entry that has been retired.
+     * The holder set and X-holder are kept alongside it so that
+     * conflicting requests can apply Wait-Die.
+     */
+    private static class LockEntry {
+        static final int WRITER = 0x4000_0000;
+        static final int READERS = WRITER - 1;
+        static final int DEAD = -1;
 
-        // Remove both types of locks (if they exist)
-        txList.remove(Integer.valueOf(txId)); // Remove S-lock
-        txList.remove(Integer.valueOf(-txId)); // Remove X-lock
+        final AtomicInteger state = new AtomicInteger();
+        final Set<Integer> sHolders = ConcurrentHashMap.newKeySet();
+        final AtomicInteger waiters = new AtomicInteger();
+        volatile int xHolder = 0;
 
-        // Remove block entry if no more locks
-        if (txList.isEmpty()) {
-            locks.remove(blk);
+        /**
+         * Returns the smallest (oldest) transaction ID holding a lock on this
+         * block other than the given one, or 0 if there is none.
+         */
+        int oldestHolderExcept(int txId) {
+            int oldest = 0;
+            if (xHolder != 0 && xHolder != txId)
+                oldest = xHolder;
+            for (int tid : sHolders)
+                if (tid != txId && (oldest == 0 || tid < oldest))
+                    oldest = tid;
+            return oldest;
         }
-        // Wake up all waiting transactions
-        notifyAll();
     }
 }
@@ -0,0 +1,160 @@
+package simpledb.tx.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.file.BlockId;
+
+/**
+ * Checks the lock table.
+ * Shared locks on a block must be held together and granted without
+ * waiting. Wait-Die must abort a younger requester with the reason
+ * and the holder of the conflicting lock, and make an older one wait
+ * until the lock is released. A block's version must advance when an
+ * X-lock on it is released. Finally, readers on the fast path and
+ * writers hammering the same blocks must never hold them at once.
+ *
+ * Usage: java simpledb.tx.concurrency.LockTableTest
+ */
+public class LockTableTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        LockTable table = new LockTable();
+        BlockId blk = new BlockId("data", 0);
+        CyclicBarrier allHeld = new CyclicBarrier(THREADS);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int txId = 100 + i;
+            readers.add(start(() -> {
+                table.sLock(blk, txId);
+                allHeld.await(10, TimeUnit.SECONDS); // fails unless every reader holds the lock
+                table.unlock(blk, txId);
+            }));
+        }
+        for (Thread t : readers)
+            t.join();
+        check(table.stats().getSLockWaits() == 0, "uncontended S-locks waited");
+        long version = table.version(blk);
+        table.xLock(blk, 200);
+        table.unlock(blk, 200);
+        check(table.version(blk) > version, "releasing an X-lock kept the version");
+        version = table.version(blk);
+        table.sLock(blk, 201);
+        table.unlock(blk, 201);
+        check(table.version(blk) == version, "releasing an S-lock changed the version");
+
+        table.xLock(blk, 10);
+        expectAbort(() -> table.sLock(blk, 20), LockAbortException.Reason.YOUNGER_THAN_X_HOLDER, 10);
+        table.unlock(blk, 10);
+        table.sLock(blk, 5);
+        table.sLock(blk, 7);
+        expectAbort(() -> table.xLock(blk, 7), LockAbortException.Reason.UPGRADE_CONFLICT, 5);
+        expectAbort(() -> table.xLock(blk, 9), LockAbortException.Reason.YOUNGER_THAN_S_HOLDER, 5);
+        table.unlock(blk, 5);
+        table.unlock(blk, 7);
+
+        table.sLock(blk, 30);
+        Thread older = start(() -> table.xLock(blk, 1));
+        older.join(100);
+        check(older.isAlive(), "an older writer did not wait for a younger reader");
+        table.unlock(blk, 30);
+        older.join(TimeUnit.SECONDS.toMillis(10));
+        check(!older.isAlive(), "a waiting writer was not woken by the release");
+        Thread olderReader = start(() -> table.sLock(blk, 0));
+        olderReader.join(100);
+        check(olderReader.isAlive(), "an older reader did not wait for a younger writer");
+        table.unlock(blk, 1);
+        olderReader.join(TimeUnit.SECONDS.toMillis(10));
+        check(!olderReader.isAlive(), "a waiting reader was not woken by the release");
+        table.unlock(blk, 0);
+
+        check(mixedLoadIsExclusive(table), "a reader and a writer held a block at once");
+        System.out.println("LockTableTest passed");
+    }
+
+    /**
+     * Runs threads that lock a few blocks, mostly for reading, and
+     * counts the readers and writers inside each block. An aborted
+     * request is retried under the same ID, as a transaction runner
+     * would. Returns false if a block was ever held by a writer
+     * together with anyone else.
+     */
+    private static boolean mixedLoadIsExclusive(LockTable table) throws InterruptedException {
+        int blocks = 4;
+        AtomicInteger[] readers = new AtomicInteger[blocks];
+        AtomicInteger[] writers = new AtomicInteger[blocks];
+        for (int b = 0; b < blocks; b++) {
+            readers[b] = new AtomicInteger();
+            writers[b] = new AtomicInteger();
+        }
+        AtomicInteger violations = new AtomicInteger();
+        AtomicInteger nextTxId = new AtomicInteger(1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(start(() -> {
+                for (int r = 0; r < ROUNDS; r++) {
+                    int b = r % blocks;
+                    BlockId blk = new BlockId("mixed", b);
+                    boolean write = (r + nextTxId.get()) % 8 == 0;
+                    int txId = nextTxId.incrementAndGet();
+                    while (true) {
+                        try {
+                            if (write)
+                                table.xLock(blk, txId);
+                            else
+                                table.sLock(blk, txId);
+                            break;
+                        } catch (LockAbortException e) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    AtomicInteger mine = write ? writers[b] : readers[b];
+                    mine.incrementAndGet();
+                    if (writers[b].get() > (write ? 1 : 0) || (write && readers[b].get() > 0))
+                        violations.incrementAndGet();
+                    mine.decrementAndGet();
+                    table.unlock(blk, txId);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.join();
+        return violations.get() == 0;
+    }
+
+    private static void expectAbort(Runnable request, LockAbortException.Reason reason, int holder) {
+        try {
+            request.run();
+        } catch (LockAbortException e) {
+            check(e.reason() == reason && e.holderTxId() == holder, "aborted with " + e.getMessage());
+            return;
+        }
+        throw new AssertionError("expected an abort with " + reason);
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static Thread start(Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
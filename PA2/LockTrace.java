@@ -0,0 +1,160 @@
+package simpledb.tx.concurrency;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.file.BlockId;
+
+/**
+ * A fixed-size ring buffer of lock events.
+ * Each event is a 24-byte record of
+ * (time, txId, file, block number, mode, outcome);
+ * file names are replaced by small integers kept in a side table.
+ * Recording is lock-free: writers claim a slot with a fetch-and-add
+ * and overwrite the oldest events once the buffer is full.
+ * A trace saved with {@link #writeTo(OutputStream)} can be replayed
+ * offline by {@link LockReplay}.
+ */
+public class LockTrace {
+    public static final byte MODE_S = 0, MODE_X = 1, MODE_UNLOCK = 2;
+    public static final byte GRANTED = 0, WAITED = 1, ABORTED = 2, RELEASED = 3;
+
+    private static final int EVENT_SIZE = 24;
+    private static final int MAGIC = 0x4C4B5452; // "LKTR"
+
+    private final ByteBuffer events;
+    private final int capacity;
+    private final AtomicLong next = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    private final Map<String, Integer> fileIds = new ConcurrentHashMap<>();
+    private final List<String> fileNames = new ArrayList<>();
+
+    /**
+     * Creates a trace that keeps the most recent events.
+     *
+     * @param capacity the number of events to keep
+     */
+    public LockTrace(int capacity) {
+        this.capacity = capacity;
+        events = ByteBuffer.allocate(capacity * EVENT_SIZE);
+    }
+
+    /**
+     * Records an event. Events written concurrently with
+     * {@link #writeTo(OutputStream)} may be saved half-written.
+     */
+    void record(BlockId blk, int txId, byte mode, byte outcome) {
+        long seq = next.getAndIncrement();
+        int pos = (int) (seq % capacity) * EVENT_SIZE;
+        events.putLong(pos, System.nanoTime() - startTime);
+        events.putInt(pos + 8, txId);
+        events.putInt(pos + 12, fileId(blk.fileName()));
+        events.putInt(pos + 16, blk.number());
+        events.put(pos + 20, mode);
+        events.put(pos + 21, outcome);
+    }
+
+    /**
+     * Returns the number of events recorded so far,
+     * including those that have been overwritten.
+     */
+    public long recorded() {
+        return next.get();
+    }
+
+    /**
+     * Writes the retained events, oldest first, in the binary trace format:
+     * a header with the file-name table followed by the event records.
+     *
+     * @param out the stream to write to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        long end = next.get();
+        long begin = Math.max(0, end - capacity);
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        List<String> names;
+        synchronized (fileNames) {
+            names = new ArrayList<>(fileNames);
+        }
+        dout.writeInt(names.size());
+        for (String name : names)
+            dout.writeUTF(name);
+        dout.writeLong(end - begin);
+        byte[] rec = new byte[EVENT_SIZE];
+        for (long seq = begin; seq < end; seq++) {
+            events.get((int) (seq % capacity) * EVENT_SIZE, rec);
+            dout.write(rec);
+        }
+        dout.flush();
+    }
+
+    /**
+     * Reads a trace written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in the stream to read from
+     * @return the events, oldest first
+     */
+    public static List<Event> read(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        if (din.readInt() != MAGIC)
+            throw new IOException("not a lock trace");
+        int numFiles = din.readInt();
+        String[] names = new String[numFiles];
+        for (int i = 0; i < numFiles; i++)
+            names[i] = din.readUTF();
+        long count = din.readLong();
+        List<Event> result = new ArrayList<>();
+        byte[] rec = new byte[EVENT_SIZE];
+        ByteBuffer bb = ByteBuffer.wrap(rec);
+        for (long i = 0; i < count; i++) {
+            din.readFully(rec);
+            int file = bb.getInt(12);
+            if (file < 0 || file >= numFiles)
+                continue; // torn event
+            BlockId blk = new BlockId(names[file], bb.getInt(16));
+            result.add(new Event(bb.getLong(0), bb.getInt(8), blk, bb.get(20), bb.get(21)));
+        }
+        return result;
+    }
+
+    private int fileId(String filename) {
+        Integer id = fileIds.get(filename);
+        if (id != null)
+            return id;
+        synchronized (fileNames) {
+            return fileIds.computeIfAbsent(filename, f -> {
+                fileNames.add(f);
+                return fileNames.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * A single decoded trace event.
+     */
+    public static class Event {
+        public final long time; // nanoseconds since the trace started
+        public final int txId;
+        public final BlockId blk;
+        public final byte mode;
+        public final byte outcome;
+
+        Event(long time, int txId, BlockId blk, byte mode, byte outcome) {
+            this.time = time;
+            this.txId = txId;
+            this.blk = blk;
+            this.mode = mode;
+            this.outcome = outcome;
+        }
+    }
+}
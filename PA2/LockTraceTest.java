@@ -0,0 +1,131 @@
+package simpledb.tx.concurrency;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import simpledb.file.BlockId;
+
+/**
+ * Checks lock traces and their replay.
+ * A schedule in which an older transaction holds an X-lock while a
+ * younger one asks for it and an even older one waits for it is
+ * replayed against a lock table that records a trace. The replay must
+ * report the one abort, the table the one wait, and the trace must
+ * read back, after a round trip through its binary format, as exactly
+ * the requests and releases that took place. A trace that is full
+ * must keep only the newest events. Replaying the recorded trace one
+ * transaction at a time must abort none of them.
+ *
+ * Usage: java simpledb.tx.concurrency.LockTraceTest
+ */
+public class LockTraceTest {
+    private static final long HOLD = 300; // ms the X-holder keeps its lock
+    private static final long LATE = 50; // ms the others start after it
+    private static final BlockId A = new BlockId("traced", 0);
+    private static final BlockId B = new BlockId("traced", 1);
+    private static final int HOLDER = 5, YOUNGER = 7, OLDER = 3;
+
+    public static void main(String[] args) throws Exception {
+        // The holder locks A and then, still holding it, B; the
+        // younger transaction dies on A and the older one waits for it.
+        List<LockTrace.Event> schedule = List.of(
+                request(HOLDER, A, LockTrace.MODE_X),
+                request(HOLDER, B, LockTrace.MODE_S),
+                request(YOUNGER, A, LockTrace.MODE_S),
+                request(OLDER, A, LockTrace.MODE_S));
+        LockTable table = new LockTable();
+        LockTrace trace = new LockTrace(16);
+        table.setTrace(trace);
+        LockReplay.Result result = new LockReplay(schedule).run(() -> delayed(table), 3);
+        table.setTrace(null);
+        check(Math.abs(result.abortRate() - 1.0 / 3) < 1e-9, "the replay reported " + result);
+        LockStats stats = table.stats();
+        long aborts = stats.getAbortCounts().values().stream().mapToLong(Long::longValue).sum();
+        check(aborts == 1, "the table aborted " + aborts + " requests");
+        check(stats.getSLockWaits() == 1 && stats.getXLockWaits() == 0,
+                "the table recorded " + stats.getSLockWaits() + " S- and " + stats.getXLockWaits() + " X-waits");
+
+        check(trace.recorded() == 7, "the trace recorded " + trace.recorded() + " events");
+        List<LockTrace.Event> events = roundTrip(trace);
+        check(events.size() == 7, "the trace read back " + events.size() + " events");
+        check(count(events, HOLDER, A, LockTrace.MODE_X, LockTrace.GRANTED) == 1, "the X-lock was not granted");
+        check(count(events, HOLDER, B, LockTrace.MODE_S, LockTrace.GRANTED) == 1, "the S-lock on B was not granted");
+        check(count(events, YOUNGER, A, LockTrace.MODE_S, LockTrace.ABORTED) == 1, "the younger request did not die");
+        check(count(events, OLDER, A, LockTrace.MODE_S, LockTrace.WAITED) == 1, "the older request did not wait");
+        check(count(events, HOLDER, A, LockTrace.MODE_UNLOCK, LockTrace.RELEASED) == 1
+                && count(events, HOLDER, B, LockTrace.MODE_UNLOCK, LockTrace.RELEASED) == 1
+                && count(events, OLDER, A, LockTrace.MODE_UNLOCK, LockTrace.RELEASED) == 1,
+                "the releases were not recorded");
+        for (int i = 1; i < events.size(); i++)
+            check(events.get(i - 1).time <= events.get(i).time, "the events read back out of order");
+
+        LockTrace full = new LockTrace(4);
+        table.setTrace(full);
+        for (int i = 0; i < 6; i++)
+            table.sLock(new BlockId("traced", i), 1);
+        table.setTrace(null);
+        events = roundTrip(full);
+        check(full.recorded() == 6 && events.size() == 4, "a full trace read back " + events.size() + " events");
+        for (int i = 0; i < 4; i++)
+            check(events.get(i).blk.number() == i + 2, "a full trace kept the wrong events");
+
+        result = new LockReplay(roundTrip(trace)).run(LockReplay::lockTable, 1);
+        check(result.abortRate() == 0, "a replay one transaction at a time reported " + result);
+        System.out.println("LockTraceTest passed");
+    }
+
+    private static LockTrace.Event request(int txId, BlockId blk, byte mode) {
+        return new LockTrace.Event(0, txId, blk, mode, LockTrace.GRANTED);
+    }
+
+    /**
+     * Wraps the table so that the schedule plays out the same way on
+     * any machine: the holder keeps its locks for a while before asking
+     * for its last one, and the others start only once it holds A.
+     */
+    private static LockReplay.Target delayed(LockTable table) {
+        return new LockReplay.Target() {
+            public void sLock(BlockId blk, int txId) {
+                sleep((txId == HOLDER) ? HOLD : LATE);
+                table.sLock(blk, txId);
+            }
+
+            public void xLock(BlockId blk, int txId) {
+                table.xLock(blk, txId);
+            }
+
+            public void unlock(BlockId blk, int txId) {
+                table.unlock(blk, txId);
+            }
+        };
+    }
+
+    private static List<LockTrace.Event> roundTrip(LockTrace trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        return LockTrace.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static int count(List<LockTrace.Event> events, int txId, BlockId blk, byte mode, byte outcome) {
+        int n = 0;
+        for (LockTrace.Event e : events)
+            if (e.txId == txId && e.blk.equals(blk) && e.mode == mode && e.outcome == outcome)
+                n++;
+        return n;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
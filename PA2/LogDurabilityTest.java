@@ -0,0 +1,84 @@
+package simpledb.log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/**
+ * Checks concurrent appends, flushes and waits for durability.
+ * First, a thread waiting in awaitDurable must wake up when a move to
+ * a new log block writes its record, with no flush and no background
+ * flush due. Then, several threads append records, each flushing or
+ * waiting for some of them, and every record must be in the log
+ * when it is reopened.
+ *
+ * Usage: java simpledb.log.LogDurabilityTest
+ */
+public class LogDurabilityTest {
+    private static final int THREADS = 8;
+    private static final int RECORDS = 2000; // per thread
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File("logdurabilitytest" + System.nanoTime());
+        FileMgr fm = new FileMgr(dir, 400);
+        LogMgr lm = new LogMgr(fm, "log");
+
+        lm.setAsyncFlushInterval(TimeUnit.MINUTES.toMillis(10));
+        int lsn = lm.append(record(-1, 0));
+        CompletableFuture<Void> waiter = CompletableFuture.runAsync(() -> lm.awaitDurable(lsn));
+        Thread.sleep(100);
+        for (int i = 0; i < 100; i++) // fills the block, which is then written
+            lm.append(record(-1, i + 1));
+        waiter.get(10, TimeUnit.SECONDS);
+
+        lm.setAsyncFlushInterval(5);
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            writers.add(CompletableFuture.runAsync(() -> {
+                int last = 0;
+                for (int i = 0; i < RECORDS; i++) {
+                    last = lm.append(record(thread, i));
+                    if (i % 97 == 0)
+                        lm.flush(last);
+                    else if (i % 31 == 0)
+                        lm.awaitDurable(last);
+                }
+                lm.awaitDurable(last);
+            }));
+        }
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+
+        Set<Long> seen = new HashSet<>();
+        Iterator<byte[]> it = new LogMgr(new FileMgr(dir, 400), "log").iterator();
+        while (it.hasNext()) {
+            Page p = new Page(it.next());
+            if (p.getInt(0) >= 0)
+                seen.add(((long) p.getInt(0) << 32) | p.getInt(Integer.BYTES));
+        }
+        check(seen.size() == THREADS * RECORDS,
+                "reopened log has " + seen.size() + " of " + THREADS * RECORDS + " records");
+        System.out.println("LogDurabilityTest passed");
+    }
+
+    private static byte[] record(int thread, int i) {
+        byte[] rec = new byte[2 * Integer.BYTES];
+        Page p = new Page(rec);
+        p.setInt(0, thread);
+        p.setInt(Integer.BYTES, i);
+        return rec;
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
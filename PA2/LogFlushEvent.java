@@ -0,0 +1,44 @@
+package simpledb.log;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import simpledb.file.BlockId;
+
+/**
+ * A flight recorder event for a write of a log page, which makes
+ * every record up to an LSN durable. A flush forced by a commit is
+ * nested in that commit's {@code simpledb.Transaction} event.
+ */
+@Name("simpledb.LogFlush")
+@Label("Log Flush")
+@Category({ "SimpleDB", "Log" })
+@StackTrace(false)
+class LogFlushEvent extends jdk.jfr.Event {
+    @Label("File")
+    String fileName;
+
+    @Label("Block")
+    int block;
+
+    @Label("Flushed LSN")
+    int lsn;
+
+    @Label("Records")
+    int records;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(BlockId blk, int previousLSN, int lsn) {
+        if (!shouldCommit())
+            return;
+        this.fileName = blk.fileName();
+        this.block = blk.number();
+        this.lsn = lsn;
+        this.records = lsn - previousLSN;
+        commit();
+    }
+}
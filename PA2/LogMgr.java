@@ -0,0 +1,422 @@
+package simpledb.log;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/**
+ * The log manager, which is responsible for
+ * writing log records into a log file. The tail of
+ * the log is kept in a page, which is written to disk
+ * when it gets full or when a flush is requested.
+ * Concurrent flush requests are grouped: one leader writes
+ * the log page up to the latest LSN while the others wait,
+ * and every waiter whose LSN was covered returns at once.
+ * Records appended by relaxed-durability commits are made durable
+ * by a background flusher within a bounded interval.
+ * Appends do not take a lock: a writer reserves its space and LSN
+ * with a CAS on the tail word, copies its record into the page, and
+ * publishes it in a completion ring. Flushes write only the prefix
+ * of the page in which every record has been published.
+ *
+ * @author Edward Sciore
+ */
+public class LogMgr {
+    private FileMgr fm;
+    private String logfile;
+    private byte[] logbuf; /* backing array of logpage */
+    private ByteBuffer logbb; /* absolute-access view of logbuf, safe for concurrent writers */
+    private Page logpage;
+    private BlockId currentblk;
+    private final AtomicLong tail = new AtomicLong(); /* latest reserved LSN and boundary */
+    private final AtomicIntegerArray published = new AtomicIntegerArray(RING_SIZE); /* record position + 1, by LSN */
+    private volatile int completedLSN = 0; /* every record up to this LSN is in the page */
+    private int completedBoundary; /* boundary of the completed records */
+    private volatile int lastSavedLSN = 0; /* every record up to this LSN is on disk */
+    private boolean flushing = false; /* true while a leader is writing the log page */
+    private long maxBatchDelay = 0; /* nanoseconds a leader waits for more committers */
+    private volatile int asyncLSN = 0; /* highest LSN the background flusher must make durable */
+    private volatile long asyncInterval = 200; /* milliseconds between background flushes */
+    private Thread flusher = null; /* started by the first asynchronous request */
+    private final ReentrantLock mutex = new ReentrantLock(); /* guards the log tail */
+    private final ReentrantLock ioLock = new ReentrantLock(); /* serializes log page writes */
+    private final Condition flushDone = mutex.newCondition();
+    private final Condition batchTimer = mutex.newCondition(); /* never signalled */
+    private static final int RING_SIZE = 4096; /* most records that can be in flight at once */
+    private static final int SEALED = 0; /* tail boundary while the block is being switched */
+
+    /**
+     * Creates the manager for the specified log file.
+     * If the log file does not yet exist, it is created
+     * with an empty first block.
+     *
+     * @param fm      the file manager
+     * @param logfile the name of the log file
+     */
+    public LogMgr(FileMgr fm, String logfile) {
+        this.fm = fm;
+        this.logfile = logfile;
+        logbuf = new byte[fm.blockSize()];
+        logbb = ByteBuffer.wrap(logbuf);
+        logpage = new Page(logbuf);
+        currentblk = lastWrittenBlock();
+        if (currentblk == null)
+            currentblk = appendNewBlock();
+        completedBoundary = logbb.getInt(0);
+        tail.set(pack(0, completedBoundary));
+    }
+
+    /**
+     * Sets how long the thread that performs a group flush waits
+     * for more committers to join before writing the log page.
+     * A delay of 0 (the default) writes immediately; requests that
+     * arrive during the write are still batched into the next one.
+     *
+     * @param micros the maximum batching delay, in microseconds
+     */
+    public void setMaxBatchDelay(long micros) {
+        mutex.lock();
+        try {
+            maxBatchDelay = TimeUnit.MICROSECONDS.toNanos(micros);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Ensures that the log record corresponding to the
+     * specified LSN has been written to disk.
+     * All earlier log records will also be written to disk.
+     * If another thread is already writing the log page, this
+     * thread waits for it and returns if that write covered the LSN;
+     * otherwise one of the waiting threads writes the next batch.
+     *
+     * @param lsn the LSN of a log record
+     */
+    public void flush(int lsn) {
+        if (lsn <= lastSavedLSN)
+            return;
+        mutex.lock();
+        try {
+            while (lsn > lastSavedLSN) {
+                if (flushing) {
+                    flushDone.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                try {
+                    groupFlush();
+                } finally {
+                    flushing = false;
+                    flushDone.signalAll();
+                }
+            }
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Requests that the log record with the specified LSN be made durable
+     * by the background flusher, without waiting for it.
+     * The record will be on disk within the flush interval, unless an
+     * earlier synchronous flush writes it first.
+     *
+     * @param lsn the LSN of a log record
+     */
+    public void flushAsync(int lsn) {
+        mutex.lock();
+        try {
+            if (lsn > asyncLSN)
+                asyncLSN = lsn;
+            if (flusher == null) {
+                flusher = new Thread(this::runFlusher, "simpledb-log-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Waits until the log record with the specified LSN is on disk.
+     * Unlike {@link #flush(int)}, this does not write the log itself
+     * at first; it relies on the background flusher, other committers,
+     * or a move to a new log block, each of which signals waiters.
+     * If the record is still not on disk after one flush interval,
+     * the thread writes the log itself, so a missed signal or a late
+     * flusher cannot make it wait forever.
+     *
+     * @param lsn the LSN of a log record
+     */
+    public void awaitDurable(int lsn) {
+        if (lsn <= lastSavedLSN)
+            return;
+        flushAsync(lsn);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(asyncInterval);
+        mutex.lock();
+        try {
+            while (lsn > lastSavedLSN && remaining > 0)
+                remaining = flushDone.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mutex.unlock();
+        }
+        flush(lsn);
+    }
+
+    /**
+     * Sets the longest time the background flusher lets an
+     * asynchronously committed record stay in memory.
+     *
+     * @param millis the flush interval, in milliseconds
+     */
+    public void setAsyncFlushInterval(long millis) {
+        asyncInterval = millis;
+    }
+
+    /**
+     * Returns the size of the largest log record that fits in a log block.
+     *
+     * @return the maximum record size, in bytes
+     */
+    public int maxRecordSize() {
+        return fm.blockSize() - 2 * Integer.BYTES;
+    }
+
+    public Iterator<byte[]> iterator() {
+        mutex.lock();
+        try {
+            flush(lsnOf(tail.get()));
+            return new LogIterator(fm, currentblk);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Appends a log record to the log buffer.
+     * The record consists of an arbitrary array of bytes.
+     * Log records are written right to left in the buffer.
+     * The size of the record is written before the bytes.
+     * The beginning of the buffer contains the location
+     * of the last-written record (the "boundary").
+     * Storing the records backwards makes it easy to read
+     * them in reverse order.
+     * Concurrent appends copy their records in parallel;
+     * only moving to a new log block takes the mutex.
+     *
+     * @param logrec a byte buffer containing the bytes.
+     * @return the LSN of the final value
+     */
+    public int append(byte[] logrec) {
+        int bytesneeded = logrec.length + Integer.BYTES;
+        if (logrec.length > maxRecordSize())
+            throw new IllegalArgumentException("log record of " + logrec.length + " bytes does not fit in a block");
+        while (true) {
+            long t = tail.get();
+            int lsn = lsnOf(t) + 1;
+            int recpos = boundaryOf(t) - bytesneeded;
+            if (recpos < Integer.BYTES) { // the log record doesn't fit,
+                switchBlock(bytesneeded); // so move to the next block.
+                continue;
+            }
+            if (lsn - completedLSN >= RING_SIZE) { // too many records in flight
+                advance();
+                Thread.onSpinWait();
+                continue;
+            }
+            if (tail.compareAndSet(t, pack(lsn, recpos))) {
+                logbb.putInt(recpos, logrec.length);
+                System.arraycopy(logrec, 0, logbuf, recpos + Integer.BYTES, logrec.length);
+                published.set(lsn % RING_SIZE, recpos + 1);
+                return lsn;
+            }
+        }
+    }
+
+    /**
+     * The body of the background flusher thread.
+     * Every interval, it flushes the log up to the highest
+     * LSN requested through {@link #flushAsync(int)}.
+     */
+    private void runFlusher() {
+        while (true) {
+            try {
+                Thread.sleep(asyncInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            int lsn = asyncLSN;
+            if (lsn > lastSavedLSN)
+                flush(lsn);
+        }
+    }
+
+    /**
+     * Seals the current log block, waits for the records already
+     * reserved in it to be published, writes it, and starts a new block.
+     * Does nothing if another thread has already switched blocks and
+     * the record now fits.
+     *
+     * @param bytesneeded the space needed by the record being appended
+     */
+    private void switchBlock(int bytesneeded) {
+        mutex.lock();
+        try {
+            long sealed;
+            while (true) {
+                long t = tail.get();
+                if (boundaryOf(t) - bytesneeded >= Integer.BYTES)
+                    return;
+                if (tail.compareAndSet(t, pack(lsnOf(t), SEALED))) {
+                    sealed = t;
+                    break;
+                }
+            }
+            int sealedLSN = lsnOf(sealed);
+            while (completedLSN < sealedLSN) {
+                advanceLocked();
+                Thread.onSpinWait();
+            }
+            logbb.putInt(0, boundaryOf(sealed));
+            writePage(currentblk, logpage, sealedLSN);
+            flushDone.signalAll(); // the write made the sealed records durable
+            currentblk = appendNewBlock();
+            completedBoundary = fm.blockSize();
+            tail.set(pack(sealedLSN, fm.blockSize()));
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Moves the completed prefix past every record that has been
+     * published, freeing their slots in the completion ring.
+     */
+    private void advance() {
+        mutex.lock();
+        try {
+            advanceLocked();
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private void advanceLocked() {
+        while (true) {
+            int next = completedLSN + 1;
+            int pos = published.get(next % RING_SIZE);
+            if (pos == 0)
+                return;
+            published.set(next % RING_SIZE, 0);
+            completedBoundary = pos - 1;
+            completedLSN = next;
+        }
+    }
+
+    private static long pack(int lsn, int boundary) {
+        return ((long) lsn << 32) | (boundary & 0xFFFFFFFFL);
+    }
+
+    private static int lsnOf(long t) {
+        return (int) (t >>> 32);
+    }
+
+    private static int boundaryOf(long t) {
+        return (int) t;
+    }
+
+    /**
+     * Returns the last block of the log that has been written, after
+     * reading it into the log page, or null if there is none.
+     * Every written log block has a nonzero boundary, so the zeroed
+     * blocks that the file manager preallocates at the end of the file
+     * are skipped; they are used as the log grows.
+     */
+    private BlockId lastWrittenBlock() {
+        for (int n = fm.length(logfile) - 1; n >= 0; n--) {
+            BlockId blk = new BlockId(logfile, n);
+            fm.read(blk, logpage);
+            if (logbb.getInt(0) != 0)
+                return blk;
+        }
+        return null;
+    }
+
+    /**
+     * Initialize the bytebuffer and write it to the block after the
+     * current one, appending that block to the log file unless it
+     * is already there.
+     */
+    private BlockId appendNewBlock() {
+        int next = (currentblk == null) ? 0 : currentblk.number() + 1;
+        BlockId blk = (next < fm.length(logfile)) ? new BlockId(logfile, next) : fm.append(logfile);
+        logpage.setInt(0, fm.blockSize());
+        fm.write(blk, logpage);
+        return blk;
+    }
+
+    /**
+     * Writes a copy of the log page up to the latest reserved LSN,
+     * after waiting for the records reserved so far to be published.
+     * Called by the flush leader with the mutex held; the mutex is
+     * released during the batching delay and the disk write so that
+     * other threads can keep appending and join the next batch.
+     */
+    private void groupFlush() {
+        long remaining = maxBatchDelay;
+        while (remaining > 0)
+            try {
+                remaining = batchTimer.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        int target = lsnOf(tail.get());
+        while (completedLSN < target) {
+            advanceLocked();
+            Thread.onSpinWait();
+        }
+        BlockId blk = currentblk;
+        byte[] copy = logbuf.clone();
+        ByteBuffer.wrap(copy).putInt(0, completedBoundary);
+        mutex.unlock();
+        try {
+            writePage(blk, new Page(copy), target);
+        } finally {
+            mutex.lock();
+        }
+    }
+
+    /**
+     * Writes a log page holding every record up to the given LSN,
+     * unless a write covering that LSN has already happened.
+     * Skipping stale writes keeps a late group flush from overwriting
+     * a fuller image of the same block.
+     */
+    private void writePage(BlockId blk, Page p, int lsn) {
+        ioLock.lock();
+        try {
+            if (lsn > lastSavedLSN) {
+                LogFlushEvent event = new LogFlushEvent();
+                event.begin();
+                fm.write(blk, p);
+                event.emit(blk, lastSavedLSN, lsn);
+                lastSavedLSN = lsn;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.tx.recovery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The NQCKPT log record, written by a non-quiescent checkpoint.
+ * It lists the transactions that were active when the checkpoint
+ * was taken. Recovery can stop reading the log once it has passed
+ * this record and the START records of all the listed transactions.
+ * A list too long for one record is split over several, each
+ * knowing its position, so that recovery can tell whether it
+ * has read them all.
+ */
+public class NQCheckpointRecord implements LogRecord {
+    private static final int HEADER = 4 * Integer.BYTES; // operator, part, parts, count
+
+    private int part, parts;
+    private List<Integer> txnums = new ArrayList<>();
+
+    /**
+     * Create a non-quiescent checkpoint record.
+     *
+     * @param p the page containing the log values
+     */
+    public NQCheckpointRecord(Page p) {
+        part = p.getInt(Integer.BYTES);
+        parts = p.getInt(2 * Integer.BYTES);
+        int count = p.getInt(3 * Integer.BYTES);
+        for (int i = 0; i < count; i++)
+            txnums.add(p.getInt(HEADER + i * Integer.BYTES));
+    }
+
+    public int op() {
+        return NQCKPT;
+    }
+
+    /**
+     * Checkpoint records have no associated transaction,
+     * and so the method returns a "dummy", negative txid.
+     */
+    public int txNumber() {
+        return -1; // dummy value
+    }
+
+    /**
+     * Returns the transactions in this record's part of the
+     * list of those active at the checkpoint.
+     *
+     * @return the IDs of the active transactions
+     */
+    public List<Integer> activeTxs() {
+        return txnums;
+    }
+
+    /**
+     * Returns the position of this record among the records of
+     * its checkpoint, which are written in order starting at 0.
+     *
+     * @return the index of this record's part
+     */
+    public int part() {
+        return part;
+    }
+
+    /**
+     * Returns true if this is the last record of its checkpoint.
+     * A checkpoint interrupted by a crash may lack its last record.
+     */
+    public boolean isLast() {
+        return part == parts - 1;
+    }
+
+    /**
+     * Does nothing, because a checkpoint record
+     * contains no undo information.
+     */
+    public void undo(Transaction tx) {
+    }
+
+    public String toString() {
+        return "<NQCKPT " + part + "/" + parts + " " + txnums + ">";
+    }
+
+    /**
+     * A static method to write the non-quiescent checkpoint records
+     * for a list of active transactions to the log, as many as the
+     * list needs. Each log record contains the NQCKPT operator, its
+     * part number, the number of parts, the number of active
+     * transactions in it, and their IDs.
+     *
+     * @return the LSN of the last log value
+     */
+    public static int writeToLog(LogMgr lm, Collection<Integer> txnums) {
+        List<Integer> all = new ArrayList<>(txnums);
+        int perRecord = (lm.maxRecordSize() - HEADER) / Integer.BYTES;
+        int parts = Math.max(1, (all.size() + perRecord - 1) / perRecord);
+        int lsn = -1;
+        for (int part = 0; part < parts; part++) {
+            List<Integer> some = all.subList(part * perRecord, Math.min(all.size(), (part + 1) * perRecord));
+            byte[] rec = new byte[HEADER + some.size() * Integer.BYTES];
+            Page p = new Page(rec);
+            p.setInt(0, NQCKPT);
+            p.setInt(Integer.BYTES, part);
+            p.setInt(2 * Integer.BYTES, parts);
+            p.setInt(3 * Integer.BYTES, some.size());
+            int pos = HEADER;
+            for (int txnum : some) {
+                p.setInt(pos, txnum);
+                pos += Integer.BYTES;
+            }
+            lsn = lm.append(rec);
+        }
+        return lsn;
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks the validation of optimistic transactions.
+ * An optimistic transaction must fail validation if a block it read
+ * was changed, or a file whose size it read was extended, by another
+ * transaction that committed first; its own appends must not count.
+ * Then optimistic and locking transfers run together, and the total
+ * they move money between must not change.
+ *
+ * Usage: java simpledb.tx.OptimisticTest
+ */
+public class OptimisticTest {
+    private static final int ACCOUNTS = 4;
+    private static final int TRANSFERS = 400;
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("optimistictest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 50);
+        Transaction init = new Transaction(fm, lm, bm);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            BlockId blk = init.append("data");
+            init.pin(blk);
+            init.setInt(blk, 0, 100, true);
+        }
+        init.commit();
+        BlockId first = new BlockId("data", 0);
+        BlockId second = new BlockId("data", 1);
+
+        Transaction occ = Transaction.beginOptimistic(fm, lm, bm);
+        occ.pin(first);
+        occ.getInt(first, 0);
+        Transaction other = new Transaction(fm, lm, bm);
+        other.pin(first);
+        other.setInt(first, 0, 100, true);
+        other.commit();
+        occ.pin(second);
+        occ.setInt(second, 0, 100, true);
+        check(fails(occ, first), "a changed block passed validation");
+
+        occ = Transaction.beginOptimistic(fm, lm, bm);
+        int size = occ.size("data");
+        other = new Transaction(fm, lm, bm);
+        other.append("data");
+        other.commit();
+        occ.pin(second);
+        occ.setInt(second, 0, size, true);
+        check(fails(occ, new BlockId("data", -1)), "an extended file passed validation");
+
+        occ = Transaction.beginOptimistic(fm, lm, bm);
+        size = occ.size("data");
+        occ.append("data");
+        check(occ.size("data") == size + 1, "own append not counted in size");
+        occ.commit();
+
+        TransactionRunner runner = new TransactionRunner(fm, lm, bm);
+        TransactionRunner.Work<Void> transfer = tx -> {
+            BlockId from = new BlockId("data", ThreadLocalRandom.current().nextInt(ACCOUNTS));
+            BlockId to = new BlockId("data", ThreadLocalRandom.current().nextInt(ACCOUNTS));
+            tx.pin(from);
+            tx.pin(to);
+            tx.setInt(from, 0, tx.getInt(from, 0) - 1, true);
+            tx.setInt(to, 0, tx.getInt(to, 0) + 1, true);
+            return null;
+        };
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        for (int i = 0; i < TRANSFERS; i++) {
+            boolean optimistic = i % 2 == 0;
+            runs.add(CompletableFuture.runAsync(() -> {
+                if (optimistic)
+                    runner.runOptimistic(transfer);
+                else
+                    runner.run(transfer);
+            }));
+        }
+        CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        Transaction tx = new Transaction(fm, lm, bm);
+        int sum = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            BlockId blk = new BlockId("data", i);
+            tx.pin(blk);
+            sum += tx.getInt(blk, 0);
+        }
+        tx.commit();
+        check(sum == ACCOUNTS * 100, "transfers changed the total to " + sum);
+        System.out.println("OptimisticTest passed");
+    }
+
+    /**
+     * Commits the transaction, returning true if validation
+     * failed on the specified block; the transaction is then
+     * rolled back.
+     */
+    private static boolean fails(Transaction tx, BlockId blk) {
+        try {
+            tx.commit();
+            return false;
+        } catch (ValidationAbortException e) {
+            tx.rollback();
+            return e.block().equals(blk);
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
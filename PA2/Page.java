@@ -0,0 +1,167 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * The contents of a disk block in memory.
+ * Values are stored as ints, length-prefixed byte arrays,
+ * length-prefixed strings, or raw byte regions.
+ * Every access is absolute and leaves the buffer's position alone,
+ * so threads can read a page concurrently.
+ *
+ * @author Edward Sciore
+ */
+public class Page {
+    private ByteBuffer bb;
+    public static Charset CHARSET = StandardCharsets.US_ASCII;
+
+    // For creating data buffers
+    public Page(int blocksize) {
+        bb = ByteBuffer.allocateDirect(blocksize);
+    }
+
+    /**
+     * Creates a data page whose contents start at a multiple of the
+     * given alignment in memory, as direct I/O requires.
+     *
+     * @param blocksize the page size, a multiple of the alignment
+     * @param alignment the required address alignment, a power of two
+     */
+    public Page(int blocksize, int alignment) {
+        bb = ByteBuffer.allocateDirect(blocksize + alignment - 1)
+                .alignedSlice(alignment).limit(blocksize).slice();
+    }
+
+    // For creating log pages
+    public Page(byte[] b) {
+        bb = ByteBuffer.wrap(b);
+    }
+
+    public int getInt(int offset) {
+        return bb.getInt(offset);
+    }
+
+    public void setInt(int offset, int n) {
+        bb.putInt(offset, n);
+    }
+
+    public byte[] getBytes(int offset) {
+        int length = valueLength(offset);
+        byte[] b = new byte[length];
+        bb.get(offset + Integer.BYTES, b);
+        return b;
+    }
+
+    public void setBytes(int offset, byte[] b) {
+        bb.putInt(offset, b.length);
+        bb.put(offset + Integer.BYTES, b);
+    }
+
+    public String getString(int offset) {
+        byte[] b = getBytes(offset);
+        return new String(b, CHARSET);
+    }
+
+    public void setString(int offset, String s) {
+        byte[] b = s.getBytes(CHARSET);
+        setBytes(offset, b);
+    }
+
+    /**
+     * Reads the string at the specified offset into a reusable holder
+     * instead of creating a String.
+     *
+     * @param offset the offset of the string
+     * @param view   the holder to overwrite
+     * @return the holder
+     */
+    public PageString getString(int offset, PageString view) {
+        int length = valueLength(offset);
+        view.load(bb, offset + Integer.BYTES, length);
+        return view;
+    }
+
+    /**
+     * Compares the string at the specified offset with a character
+     * sequence, in the order of {@link String#compareTo(String)},
+     * reading the page bytes in place. Bytes are decoded as
+     * {@link #getString(int)} decodes them.
+     *
+     * @param offset the offset of the string
+     * @param s      the sequence to compare with
+     * @return a negative number, zero, or a positive number as the
+     *         string is less than, equal to, or greater than s
+     */
+    public int compareString(int offset, CharSequence s) {
+        int length = valueLength(offset);
+        int start = offset + Integer.BYTES;
+        int n = Math.min(length, s.length());
+        for (int i = 0; i < n; i++) {
+            int c = PageString.decode(bb.get(start + i)) - s.charAt(i);
+            if (c != 0)
+                return c;
+        }
+        return length - s.length();
+    }
+
+    /**
+     * Returns the hash code of the string at the specified offset,
+     * equal to that of the String {@link #getString(int)} would return,
+     * reading the page bytes in place.
+     *
+     * @param offset the offset of the string
+     * @return the string's hash code
+     */
+    public int hashString(int offset) {
+        int length = valueLength(offset);
+        int start = offset + Integer.BYTES;
+        int h = 0;
+        for (int i = 0; i < length; i++)
+            h = 31 * h + PageString.decode(bb.get(start + i));
+        return h;
+    }
+
+    private int valueLength(int offset) {
+        int length = bb.getInt(offset);
+        Objects.checkFromIndexSize(offset + Integer.BYTES, length, bb.capacity());
+        return length;
+    }
+
+    /**
+     * Returns a copy of the raw bytes in the specified region,
+     * without interpreting any length prefix.
+     *
+     * @param offset the start of the region
+     * @param length the number of bytes
+     * @return the bytes in the region
+     */
+    public byte[] getRegion(int offset, int length) {
+        byte[] b = new byte[length];
+        bb.get(offset, b);
+        return b;
+    }
+
+    /**
+     * Overwrites the raw bytes starting at the specified offset.
+     *
+     * @param offset the start of the region
+     * @param region the bytes to write
+     */
+    public void setRegion(int offset, byte[] region) {
+        bb.put(offset, region);
+    }
+
+    public static int maxLength(int strlen) {
+        float bytesPerChar = CHARSET.newEncoder().maxBytesPerChar();
+        return Integer.BYTES + (strlen * (int) bytesPerChar);
+    }
+
+    // a package private method, needed by FileMgr;
+    // each caller gets its own position, so transfers can overlap
+    ByteBuffer contents() {
+        return bb.duplicate().clear();
+    }
+}
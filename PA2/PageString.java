@@ -0,0 +1,112 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A reusable holder for a string value read from a page.
+ * Reading into the same holder again overwrites its contents
+ * and only allocates when a longer value needs more room, so a
+ * scan can read, compare and hash strings without creating a
+ * String per value.
+ * Characters are decoded one byte each, as in the default
+ * US-ASCII page charset, where a byte outside ASCII decodes to
+ * U+FFFD. Comparisons, equality and the hash code are those of
+ * the equivalent String.
+ */
+public final class PageString implements CharSequence, Comparable<CharSequence> {
+    private static final char REPLACEMENT = '\uFFFD'; // how US-ASCII decodes a byte above 0x7F
+    private byte[] bytes = new byte[16];
+    private int length = 0;
+
+    /**
+     * Copies a value's bytes from the buffer into this holder.
+     *
+     * @param bb     the page's buffer
+     * @param start  the position of the first byte
+     * @param length the number of bytes
+     */
+    void load(ByteBuffer bb, int start, int length) {
+        if (length > bytes.length)
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+        bb.get(start, bytes, 0, length);
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        Objects.checkIndex(index, length);
+        return decode(bytes[index]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length);
+        return new String(bytes, start, end - start, Page.CHARSET);
+    }
+
+    /**
+     * Compares the held value with a character sequence,
+     * in the order of {@link String#compareTo(String)}.
+     */
+    @Override
+    public int compareTo(CharSequence s) {
+        int n = Math.min(length, s.length());
+        for (int i = 0; i < n; i++) {
+            int c = decode(bytes[i]) - s.charAt(i);
+            if (c != 0)
+                return c;
+        }
+        return length - s.length();
+    }
+
+    /**
+     * Returns true if the held value has the same characters
+     * as the specified sequence.
+     *
+     * @param s the sequence to compare with
+     * @return true if the characters are equal
+     */
+    public boolean contentEquals(CharSequence s) {
+        return length == s.length() && compareTo(s) == 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PageString))
+            return false;
+        PageString other = (PageString) obj;
+        return contentEquals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < length; i++)
+            h = 31 * h + decode(bytes[i]);
+        return h;
+    }
+
+    /**
+     * Returns the character a page byte decodes to.
+     *
+     * @param b the byte
+     * @return the byte itself if it is ASCII, U+FFFD otherwise
+     */
+    static char decode(byte b) {
+        return b >= 0 ? (char) b : REPLACEMENT;
+    }
+
+    /**
+     * Returns the held value as a new String.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, Page.CHARSET);
+    }
+}
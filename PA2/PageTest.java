@@ -0,0 +1,74 @@
+package simpledb.file;
+
+import java.util.List;
+
+/**
+ * Checks the in-place string reads of a page.
+ * For ASCII strings, strings holding bytes outside ASCII, and the
+ * empty string, {@link Page#hashString(int)},
+ * {@link Page#compareString(int, CharSequence)} and a
+ * {@link PageString} read from the page must agree with the String
+ * that {@link Page#getString(int)} returns: the same hash code, the
+ * same characters, and the same order against a range of other
+ * strings. Holders of values that decode to equal Strings must
+ * be equal.
+ *
+ * Usage: java simpledb.file.PageTest
+ */
+public class PageTest {
+    private static final List<String> PROBES = List.of("", "a", "abc", "abd", "ab", "zz", "\u007f",
+            "\u0080", "\u00ff", "\ufffd", "a\ufffd", "a\ufffdb", "\uffff");
+
+    public static void main(String[] args) {
+        List<byte[]> values = List.of(bytes("abc"), bytes("ab"), new byte[0], bytes("\u007fz"),
+                new byte[] { 'a', (byte) 0x80 }, new byte[] { 'a', (byte) 0xFF, 'b' },
+                new byte[] { (byte) 0xC3, (byte) 0xA9 }, new byte[] { (byte) 0xEF, (byte) 0xBF, (byte) 0xBD });
+        Page page = new Page(400);
+        int[] offsets = new int[values.size()];
+        int offset = 0;
+        for (int i = 0; i < values.size(); i++) {
+            offsets[i] = offset;
+            page.setBytes(offset, values.get(i));
+            offset += Integer.BYTES + values.get(i).length;
+        }
+
+        PageString view = new PageString();
+        PageString other = new PageString();
+        for (int i = 0; i < offsets.length; i++) {
+            String s = page.getString(offsets[i]);
+            String where = "value " + i;
+            check(page.hashString(offsets[i]) == s.hashCode(), where + ": hashString differs from getString");
+            page.getString(offsets[i], view);
+            check(view.toString().equals(s), where + ": the holder reads " + view);
+            check(view.hashCode() == s.hashCode(), where + ": the holder's hash differs from getString");
+            check(view.length() == s.length(), where + ": the holder has the wrong length");
+            for (int k = 0; k < s.length(); k++)
+                check(view.charAt(k) == s.charAt(k), where + ": the holder decodes character " + k + " wrongly");
+            for (String probe : PROBES) {
+                int expected = Integer.signum(s.compareTo(probe));
+                check(Integer.signum(page.compareString(offsets[i], probe)) == expected,
+                        where + ": compareString orders it wrongly against \"" + probe + "\"");
+                check(Integer.signum(view.compareTo(probe)) == expected,
+                        where + ": the holder orders it wrongly against \"" + probe + "\"");
+                check(view.contentEquals(probe) == s.equals(probe), where + ": contentEquals(\"" + probe + "\")");
+            }
+            for (int j = 0; j < offsets.length; j++) {
+                page.getString(offsets[j], other);
+                boolean equal = s.equals(page.getString(offsets[j]));
+                check(view.equals(other) == equal, where + ": holder equality differs from String for value " + j);
+                check(!equal || view.hashCode() == other.hashCode(), where + ": equal holders hash differently");
+            }
+        }
+        check(new String(new byte[] { (byte) 0x80 }, Page.CHARSET).equals("\ufffd"), "the page charset changed");
+        System.out.println("PageTest passed");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Page.CHARSET);
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.tx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+
+/**
+ * Collects several field writes to one block and applies them together.
+ * The writes use the same formats as {@link Page}. Applying the batch
+ * takes the XLock and looks up the buffer once, writes a single
+ * log record holding the before-image of each region written, and
+ * marks the buffer modified once.
+ * Obtain a writer with {@link Transaction#pageWriter(BlockId)}.
+ */
+public class PageWriter {
+    private Transaction tx;
+    private BlockId blk;
+    private List<Integer> offsets = new ArrayList<>();
+    private List<byte[]> values = new ArrayList<>(); // encoded bytes, in write order
+
+    PageWriter(Transaction tx, BlockId blk) {
+        this.tx = tx;
+        this.blk = blk;
+    }
+
+    /**
+     * Adds an integer write to the batch.
+     *
+     * @param offset the byte offset within the block
+     * @param val    the value to be stored
+     * @return this writer
+     */
+    public PageWriter setInt(int offset, int val) {
+        return setRegion(offset, ByteBuffer.allocate(Integer.BYTES).putInt(val).array());
+    }
+
+    /**
+     * Adds a string write to the batch, stored like {@link Page#setString}.
+     *
+     * @param offset the byte offset within the block
+     * @param val    the value to be stored
+     * @return this writer
+     */
+    public PageWriter setString(int offset, String val) {
+        return setBytes(offset, val.getBytes(Page.CHARSET));
+    }
+
+    /**
+     * Adds a length-prefixed byte array write to the batch,
+     * stored like {@link Page#setBytes}.
+     *
+     * @param offset the byte offset within the block
+     * @param val    the value to be stored
+     * @return this writer
+     */
+    public PageWriter setBytes(int offset, byte[] val) {
+        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES + val.length);
+        bb.putInt(val.length).put(val);
+        return setRegion(offset, bb.array());
+    }
+
+    /**
+     * Adds a raw write of the given bytes, with no length prefix.
+     *
+     * @param offset the byte offset within the block
+     * @param region the bytes to be stored
+     * @return this writer
+     */
+    public PageWriter setRegion(int offset, byte[] region) {
+        offsets.add(offset);
+        values.add(region);
+        return this;
+    }
+
+    /**
+     * Applies the batched writes to the block, in the order they were added.
+     * The writer is empty afterwards and can be reused.
+     *
+     * @param okToLog true if the batch should be logged
+     */
+    public void apply(boolean okToLog) {
+        if (offsets.isEmpty())
+            return;
+        tx.setRegions(blk, offsets, values, okToLog);
+        offsets.clear();
+        values.clear();
+    }
+}
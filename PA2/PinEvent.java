@@ -0,0 +1,54 @@
+package simpledb.buffer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import simpledb.file.BlockId;
+
+/**
+ * A flight recorder event for a call to {@link BufferMgr#pin},
+ * timing the call and recording whether the block was already in
+ * a buffer, had to be read into one, or had to wait for one.
+ * A read caused by a miss is recorded as a nested
+ * {@code simpledb.FileIO} event on the same thread.
+ */
+@Name("simpledb.BufferPin")
+@Label("Buffer Pin")
+@Category({ "SimpleDB", "Buffer" })
+@StackTrace(false)
+class PinEvent extends jdk.jfr.Event {
+    static final String HIT = "hit";
+    static final String MISS = "miss";
+    static final String WAIT = "wait";
+    static final String ABORT = "abort";
+
+    @Label("Transaction")
+    @Description("The ID of the pinning transaction, or 0 if not known")
+    int txId;
+
+    @Label("File")
+    String fileName;
+
+    @Label("Block")
+    int block;
+
+    @Label("Outcome")
+    @Description("hit, miss, wait, or abort if no buffer became available")
+    String outcome;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(int txId, BlockId blk, String outcome) {
+        if (!shouldCommit())
+            return;
+        this.txId = txId;
+        this.fileName = blk.fileName();
+        this.block = blk.number();
+        this.outcome = outcome;
+        commit();
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.LockAbortException;
+
+/**
+ * Checks read-only transactions.
+ * Every method that writes must throw, and a read-only transaction
+ * must write no log record, not even a start or a commit. A reader
+ * that meets an X-lock must wait for it rather than abort, and it
+ * must read the committed value afterwards. Writers younger than a
+ * busy reader must never be aborted because of it. Finally, readers
+ * racing writers that lock and release the same block over and over
+ * must never be left waiting.
+ *
+ * Usage: java simpledb.tx.ReadOnlyTest
+ */
+public class ReadOnlyTest {
+    private static final int READERS = 4;
+    private static final int WRITES = 300; // committed around busy readers
+    private static final int RELEASES = 10000; // X-locks released while readers wait
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("readonlytest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 16);
+        Transaction tx = new Transaction(fm, lm, bm);
+        BlockId blk = tx.append("data");
+        tx.pin(blk);
+        tx.setInt(blk, 0, 1, true);
+        tx.commit();
+
+        int records = logRecords(lm);
+        Transaction ro = Transaction.beginReadOnly(fm, lm, bm);
+        ro.pin(blk);
+        check(ro.getInt(blk, 0) == 1, "a read-only transaction read the wrong value");
+        check(rejected(() -> ro.setInt(blk, 0, 2, true)), "setInt was accepted");
+        check(rejected(() -> ro.setString(blk, 4, "x", true)), "setString was accepted");
+        check(rejected(() -> ro.setBytes(blk, 4, new byte[1], true)), "setBytes was accepted");
+        check(rejected(() -> ro.pageWriter(blk).setInt(0, 2).apply(true)), "a page writer batch was accepted");
+        check(rejected(() -> ro.append("data")), "append was accepted");
+        ro.commit();
+        Transaction.beginReadOnly(fm, lm, bm).rollback();
+        check(logRecords(lm) == records, "a read-only transaction wrote log records");
+
+        Transaction writer = new Transaction(fm, lm, bm);
+        writer.pin(blk);
+        writer.setInt(blk, 0, 2, true);
+        int[] seen = new int[1];
+        Thread reader = new Thread(() -> {
+            Transaction younger = Transaction.beginReadOnly(fm, lm, bm);
+            younger.pin(blk);
+            seen[0] = younger.getInt(blk, 0);
+            younger.commit();
+        });
+        reader.setDaemon(true);
+        reader.start();
+        reader.join(200);
+        check(reader.isAlive(), "a reader did not wait for an X-lock");
+        writer.commit();
+        reader.join(10_000);
+        check(!reader.isAlive(), "a waiting reader was not woken by the commit");
+        check(seen[0] == 2, "a reader read " + seen[0] + " after the commit");
+
+        Transaction oldest = Transaction.beginReadOnly(fm, lm, bm);
+        oldest.pin(blk);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger aborts = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++)
+            readers.add(new Thread(() -> {
+                while (!done.get())
+                    oldest.getInt(blk, 0);
+            }));
+        for (Thread t : readers) {
+            t.setDaemon(true); // a reader left waiting must not keep the JVM alive
+            t.start();
+        }
+        for (int i = 0; i < WRITES; i++) {
+            Transaction w = new Transaction(fm, lm, bm);
+            try {
+                w.pin(blk);
+                w.setInt(blk, 0, w.getInt(blk, 0) + 1, true);
+                w.commit();
+            } catch (LockAbortException e) {
+                aborts.incrementAndGet();
+                w.rollback();
+            }
+        }
+        done.set(true);
+        check(joined(readers), "a reader was left waiting after the writers finished");
+        oldest.commit();
+        check(aborts.get() == 0, aborts.get() + " writers were aborted by an older reader");
+
+        check(readersNeverStall(fm, lm, bm, blk), "a reader was left waiting after the writers finished");
+        System.out.println("ReadOnlyTest passed");
+    }
+
+    /**
+     * Runs short read-only transactions while writers lock and release
+     * the block, so that readers often wait on an entry that is being
+     * removed from the lock table. Returns false if a reader is still
+     * waiting well after the writers are done.
+     */
+    private static boolean readersNeverStall(FileMgr fm, LogMgr lm, BufferMgr bm, BlockId blk)
+            throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < READERS; r++)
+            threads.add(new Thread(() -> {
+                while (!done.get()) {
+                    Transaction tx = Transaction.beginReadOnly(fm, lm, bm);
+                    tx.pin(blk);
+                    tx.getInt(blk, 0);
+                    tx.commit();
+                }
+            }));
+        Thread writers = new Thread(() -> {
+            for (int i = 0; i < RELEASES; i++) {
+                Transaction w = new Transaction(fm, lm, bm);
+                w.pin(blk);
+                w.setInt(blk, 0, i, false);
+                w.commit();
+            }
+        });
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        writers.start();
+        writers.join();
+        done.set(true);
+        return joined(threads);
+    }
+
+    /**
+     * Waits a while for the threads to finish, and
+     * returns false if any of them is still running.
+     */
+    private static boolean joined(List<Thread> threads) throws InterruptedException {
+        for (Thread t : threads) {
+            t.join(10_000);
+            if (t.isAlive())
+                return false;
+        }
+        return true;
+    }
+
+    private static int logRecords(LogMgr lm) {
+        int count = 0;
+        for (Iterator<byte[]> it = lm.iterator(); it.hasNext(); it.next())
+            count++;
+        return count;
+    }
+
+    /**
+     * Returns true if the action is refused because the
+     * transaction is read-only.
+     */
+    private static boolean rejected(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return true;
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
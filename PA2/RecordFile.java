@@ -0,0 +1,135 @@
+package simpledb.record;
+
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+
+/**
+ * Provides access to the variable-length records of a file of
+ * slotted pages, identified by their RIDs.
+ * An insert asks the file's free-space map for a block with room;
+ * if the map knows of none, it visits the blocks the map has not
+ * seen yet, and only then appends a new block.
+ * At most one block of the file is pinned at a time.
+ */
+public class RecordFile {
+    private Transaction tx;
+    private FreeSpaceMap fsm;
+    private String filename;
+    private SlottedPage sp = null; // the pinned page, if any
+
+    /**
+     * Create a record file for the file of the specified free-space map.
+     *
+     * @param tx  the calling transaction
+     * @param fsm the file's free-space map
+     */
+    public RecordFile(Transaction tx, FreeSpaceMap fsm) {
+        this.tx = tx;
+        this.fsm = fsm;
+        this.filename = fsm.fileName();
+    }
+
+    /**
+     * Insert a record into a block with room for it.
+     *
+     * @param rec the record's bytes
+     * @return the new record's RID
+     */
+    public RID insert(byte[] rec) {
+        if (rec.length > SlottedPage.maxRecordLength(tx.blockSize()))
+            throw new IllegalArgumentException("record of " + rec.length + " bytes does not fit in a block");
+        while (true) {
+            int blknum = fsm.find(rec.length);
+            if (blknum < 0)
+                blknum = fsm.nextUnknown(tx.size(filename));
+            if (blknum < 0)
+                blknum = tx.append(filename).number();
+            moveTo(blknum);
+            int slot = sp.insert(rec);
+            fsm.update(blknum, sp.freeSpace());
+            if (slot >= 0)
+                return new RID(blknum, slot);
+        }
+    }
+
+    /**
+     * Return the record with the specified RID.
+     *
+     * @param rid the record's RID
+     * @return the record's bytes, or null if it has been deleted
+     */
+    public byte[] get(RID rid) {
+        moveTo(rid.blockNumber());
+        return sp.get(rid.slot());
+    }
+
+    /**
+     * Replace the record with the specified RID. If the new record
+     * no longer fits in its block, it is moved to another block
+     * and gets a new RID.
+     *
+     * @param rid the record's RID
+     * @param rec the record's new bytes
+     * @return the record's RID after the update
+     * @throws IllegalArgumentException if the record has been deleted
+     */
+    public RID update(RID rid, byte[] rec) {
+        moveTo(rid.blockNumber());
+        boolean fits = sp.update(rid.slot(), rec);
+        if (fits) {
+            fsm.update(rid.blockNumber(), sp.freeSpace());
+            return rid;
+        }
+        delete(rid);
+        return insert(rec);
+    }
+
+    /**
+     * Delete the record with the specified RID.
+     *
+     * @param rid the record's RID
+     * @throws IllegalArgumentException if the record has been deleted
+     */
+    public void delete(RID rid) {
+        moveTo(rid.blockNumber());
+        sp.delete(rid.slot());
+        fsm.update(rid.blockNumber(), sp.freeSpace());
+    }
+
+    /**
+     * Return the RID of the first record after the specified one,
+     * in file order.
+     *
+     * @param rid a record's RID, or null to start from the beginning
+     * @return the next record's RID, or null if there are no more
+     */
+    public RID next(RID rid) {
+        int blknum = (rid == null) ? 0 : rid.blockNumber();
+        int slot = (rid == null) ? -1 : rid.slot();
+        while (blknum < tx.size(filename)) {
+            moveTo(blknum);
+            slot = sp.nextAfter(slot);
+            if (slot >= 0)
+                return new RID(blknum, slot);
+            blknum++;
+            slot = -1;
+        }
+        return null;
+    }
+
+    /**
+     * Unpin the current block, if any.
+     */
+    public void close() {
+        if (sp != null)
+            sp.close();
+        sp = null;
+    }
+
+    private void moveTo(int blknum) {
+        if (sp != null && sp.block().number() == blknum)
+            return;
+        close();
+        sp = new SlottedPage(tx, new BlockId(filename, blknum));
+    }
+}
@@ -0,0 +1,40 @@
+package simpledb.tx.recovery;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for restart recovery, timing the scan
+ * of the log and the undo of unfinished transactions.
+ */
+@Name("simpledb.Recovery")
+@Label("Recovery")
+@Category({ "SimpleDB", "Recovery" })
+@StackTrace(false)
+class RecoveryEvent extends jdk.jfr.Event {
+    @Label("Records Scanned")
+    int scanned;
+
+    @Label("Records Undone")
+    int undone;
+
+    @Label("Workers")
+    @Description("The number of buckets the undone records were split into")
+    int workers;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(int scanned, int undone, int workers) {
+        if (!shouldCommit())
+            return;
+        this.scanned = scanned;
+        this.undone = undone;
+        this.workers = workers;
+        commit();
+    }
+}
@@ -0,0 +1,425 @@
+package simpledb.tx.recovery;
+
+import static simpledb.tx.recovery.LogRecord.CHECKPOINT;
+import static simpledb.tx.recovery.LogRecord.COMMIT;
+import static simpledb.tx.recovery.LogRecord.NQCKPT;
+import static simpledb.tx.recovery.LogRecord.ROLLBACK;
+import static simpledb.tx.recovery.LogRecord.START;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import simpledb.buffer.Buffer;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The recovery manager. Each transaction has its own recovery manager.
+ * Besides writing the log, it keeps the before-images of the
+ * transaction's own updates in memory, newest last, so that a rollback
+ * undoes exactly those updates without reading the log.
+ * The recovery managers share a table of active transactions, which
+ * non-quiescent checkpoints write to the log so that restart recovery
+ * reads only the log written since the oldest of them started.
+ *
+ * @author Edward Sciore
+ */
+public class RecoveryMgr {
+    private LogMgr lm;
+    private BufferMgr bm;
+    private Transaction tx;
+    private int txnum;
+    private List<LogRecord> undoChain = new ArrayList<>(); // this transaction's updates, oldest first
+
+    private static final Set<Integer> activeTxs = ConcurrentHashMap.newKeySet();
+    /* starts hold the read lock, so a checkpoint lists every transaction whose START precedes it */
+    private static final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private static Thread checkpointer = null;
+    private static volatile long checkpointInterval = 0; /* milliseconds; 0 if not running */
+    private static volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Create a recovery manager for the specified transaction.
+     *
+     * @param txnum the ID of the specified transaction
+     */
+    public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
+        this.tx = tx;
+        this.txnum = txnum;
+        this.lm = lm;
+        this.bm = bm;
+        checkpointLock.readLock().lock();
+        try {
+            activeTxs.add(txnum);
+            StartRecord.writeToLog(lm, txnum);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write a non-quiescent checkpoint record listing the
+     * active transactions, and flush it to disk.
+     * Transactions keep running during the checkpoint; new ones
+     * only wait while the record is appended. A list too long
+     * for one log record is split over several consecutive ones.
+     *
+     * @param lm the log manager
+     * @return the LSN of the last checkpoint record
+     */
+    public static int checkpoint(LogMgr lm) {
+        int lsn;
+        checkpointLock.writeLock().lock();
+        try {
+            lsn = NQCheckpointRecord.writeToLog(lm, new ArrayList<>(activeTxs));
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        lm.flush(lsn);
+        return lsn;
+    }
+
+    /**
+     * Start a background thread that takes a non-quiescent checkpoint
+     * at the given interval, or change the interval of the running one.
+     * Restart recovery then reads at most the log written since the
+     * start of the oldest transaction active at the latest checkpoint.
+     *
+     * @param lm             the log manager
+     * @param intervalMillis the time between checkpoints, in milliseconds
+     */
+    public static synchronized void startCheckpointer(LogMgr lm, long intervalMillis) {
+        checkpointInterval = intervalMillis;
+        if (checkpointer != null)
+            return;
+        checkpointer = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(checkpointInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                checkpoint(lm);
+            }
+        }, "simpledb-checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Flush the transaction's modified buffers,
+     * write a commit record to the log, and flush it to disk.
+     */
+    public void commit() {
+        commit(true);
+    }
+
+    /**
+     * Flush the transaction's modified buffers and
+     * write a commit record to the log.
+     * The data pages are always written, because recovery only
+     * undoes unfinished transactions and cannot redo a committed one.
+     * If force is false, the commit record is left for the log
+     * manager's background flusher instead of being flushed here.
+     *
+     * @param force true to flush the commit record before returning
+     * @return the LSN of the commit record
+     */
+    public int commit(boolean force) {
+        bm.flushAll(txnum);
+        int lsn = CommitRecord.writeToLog(lm, txnum);
+        if (force)
+            lm.flush(lsn);
+        else
+            lm.flushAsync(lsn);
+        activeTxs.remove(txnum);
+        return lsn;
+    }
+
+    /**
+     * Write a rollback record to the log and flush it to disk.
+     */
+    public void rollback() {
+        doRollback();
+        bm.flushAll(txnum);
+        int lsn = RollbackRecord.writeToLog(lm, txnum);
+        lm.flush(lsn);
+        activeTxs.remove(txnum);
+    }
+
+    /**
+     * Recover uncompleted transactions from the log
+     * and then write a quiescent checkpoint record to the log and flush it.
+     */
+    public void recover() {
+        recover(null);
+    }
+
+    /**
+     * Recover uncompleted transactions from the log, undoing them
+     * on several worker transactions at once, and then write a
+     * quiescent checkpoint record to the log and flush it.
+     *
+     * @param workers creates the worker transactions that undo records
+     * @see #setRecoveryThreads(int)
+     */
+    public void recover(Supplier<Transaction> workers) {
+        doRecover(workers);
+        bm.flushAll(txnum);
+        int lsn = CheckpointRecord.writeToLog(lm);
+        lm.flush(lsn);
+        activeTxs.remove(txnum);
+    }
+
+    /**
+     * Set the number of worker transactions that undo records
+     * during restart recovery. The default is the number of processors.
+     *
+     * @param threads the number of recovery workers
+     */
+    public static void setRecoveryThreads(int threads) {
+        recoveryThreads = threads;
+    }
+
+    /**
+     * Write a setint record to the log and return its lsn.
+     *
+     * @param buff   the buffer containing the page
+     * @param offset the offset of the value in the page
+     * @param newval the value to be written
+     */
+    public int setInt(Buffer buff, int offset, int newval) {
+        int oldval = buff.contents().getInt(offset);
+        BlockId blk = buff.block();
+        chain(buff, offset, Integer.BYTES);
+        return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+    }
+
+    /**
+     * Write a setstring record to the log and return its lsn.
+     *
+     * @param buff   the buffer containing the page
+     * @param offset the offset of the value in the page
+     * @param newval the value to be written
+     */
+    public int setString(Buffer buff, int offset, String newval) {
+        String oldval = buff.contents().getString(offset);
+        BlockId blk = buff.block();
+        chain(buff, offset, Integer.BYTES + oldval.getBytes(Page.CHARSET).length);
+        return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+    }
+
+    /**
+     * Write setbytes records holding the current contents of the
+     * regions of the buffer's page that a batch is about to modify,
+     * and return the last lsn. Regions that overlap, or lie closer
+     * together than a region's own overhead in the record, are
+     * merged. The regions share one record if they fit, and are
+     * otherwise spread over several consecutive records, with a
+     * region too large for any record split between them.
+     *
+     * @param buff    the buffer containing the page
+     * @param offsets the start of each region about to be modified
+     * @param lengths the length of each region
+     */
+    public int setRegions(Buffer buff, List<Integer> offsets, List<Integer> lengths) {
+        BlockId blk = buff.block();
+        Page p = buff.contents();
+        int capacity = SetBytesRecord.regionCapacity(lm, blk);
+        List<Integer> recOffsets = new ArrayList<>();
+        List<byte[]> recImages = new ArrayList<>();
+        int used = 0, lsn = -1;
+        for (int[] region : merge(offsets, lengths)) {
+            int start = region[0], end = region[1];
+            while (start < end) {
+                int room = capacity - used - SetBytesRecord.REGION_HEADER;
+                if (!recOffsets.isEmpty() && room < Math.min(end - start, capacity - SetBytesRecord.REGION_HEADER)) {
+                    lsn = logRegions(blk, recOffsets, recImages);
+                    used = 0;
+                    continue;
+                }
+                int length = Math.min(room, end - start);
+                recOffsets.add(start);
+                recImages.add(p.getRegion(start, length));
+                used += SetBytesRecord.REGION_HEADER + length;
+                start += length;
+            }
+        }
+        if (!recOffsets.isEmpty())
+            lsn = logRegions(blk, recOffsets, recImages);
+        return lsn;
+    }
+
+    /**
+     * Return the regions sorted by offset as {start, end} pairs,
+     * merging those that overlap or are separated by fewer bytes
+     * than a region costs in a setbytes record.
+     */
+    private static List<int[]> merge(List<Integer> offsets, List<Integer> lengths) {
+        List<int[]> regions = new ArrayList<>();
+        for (int i = 0; i < offsets.size(); i++)
+            regions.add(new int[] { offsets.get(i), offsets.get(i) + lengths.get(i) });
+        regions.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] r : regions) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && r[0] <= last[1] + SetBytesRecord.REGION_HEADER)
+                last[1] = Math.max(last[1], r[1]);
+            else
+                merged.add(r);
+        }
+        return merged;
+    }
+
+    /**
+     * Write one setbytes record for the collected regions, add it
+     * to the undo chain, and clear the lists.
+     */
+    private int logRegions(BlockId blk, List<Integer> offsets, List<byte[]> images) {
+        int[] offs = new int[offsets.size()];
+        for (int i = 0; i < offs.length; i++)
+            offs[i] = offsets.get(i);
+        byte[][] imgs = images.toArray(new byte[0][]);
+        offsets.clear();
+        images.clear();
+        undoChain.add(new SetBytesRecord(txnum, blk, offs, imgs));
+        return SetBytesRecord.writeToLog(lm, txnum, blk, offs, imgs);
+    }
+
+    /**
+     * Save the before-image of a region that is about to be
+     * modified at the end of the transaction's undo chain.
+     */
+    private void chain(Buffer buff, int offset, int length) {
+        byte[] image = buff.contents().getRegion(offset, length);
+        undoChain.add(new SetBytesRecord(txnum, buff.block(), offset, image));
+    }
+
+    /**
+     * Rollback the transaction, by calling undo()
+     * for each of the transaction's updates,
+     * newest first. Only the transaction's own updates
+     * are visited; the log is not read.
+     */
+    private void doRollback() {
+        for (int i = undoChain.size() - 1; i >= 0; i--)
+            undoChain.get(i).undo(tx);
+        undoChain.clear();
+    }
+
+    /**
+     * Do a complete database recovery.
+     * The method iterates through the log records once.
+     * Whenever it finds a log record for an unfinished
+     * transaction, it adds the record to the bucket of the
+     * block the record modifies. The buckets are then undone
+     * in parallel, one worker transaction per bucket; within a
+     * bucket the records are undone in the order they were read,
+     * so each block is restored newest update first.
+     * The scan stops when it encounters a CHECKPOINT record,
+     * when it has passed every NQCKPT record of a checkpoint and
+     * the START records of all the transactions listed in them, or
+     * at the end of the log. A checkpoint whose last record is
+     * missing, because of a crash while it was written, is ignored.
+     * The work done is reported to the flight recorder as a
+     * {@link RecoveryEvent}.
+     *
+     * @param workers creates the worker transactions, or null to
+     *                undo every record in this transaction
+     */
+    private void doRecover(Supplier<Transaction> workers) {
+        RecoveryEvent event = new RecoveryEvent();
+        event.begin();
+        int nbuckets = (workers == null) ? 1 : recoveryThreads;
+        List<List<LogRecord>> buckets = new ArrayList<>();
+        for (int i = 0; i < nbuckets; i++)
+            buckets.add(new ArrayList<>());
+        Collection<Integer> finishedTxs = new HashSet<Integer>();
+        Set<Integer> unstarted = null; // listed in the latest checkpoint, START not yet seen
+        int unread = 0; // records of that checkpoint not yet read
+        int scanned = 0, undone = 0;
+        Iterator<byte[]> iter = lm.iterator();
+        while (iter.hasNext()) {
+            byte[] bytes = iter.next();
+            LogRecord rec = LogRecord.createLogRecord(bytes);
+            scanned++;
+            if (rec.op() == CHECKPOINT)
+                break;
+            if (rec.op() == NQCKPT) {
+                NQCheckpointRecord ckpt = (NQCheckpointRecord) rec;
+                if (unread > 0) {
+                    unstarted.addAll(ckpt.activeTxs());
+                    unread--;
+                } else if (unstarted == null && ckpt.isLast()) {
+                    unstarted = new HashSet<>(ckpt.activeTxs());
+                    unread = ckpt.part();
+                }
+            } else if (rec.op() == START && unstarted != null)
+                unstarted.remove(rec.txNumber());
+            if (unstarted != null && unread == 0 && unstarted.isEmpty())
+                break;
+            if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+                finishedTxs.add(rec.txNumber());
+            else if (rec.block() != null && !finishedTxs.contains(rec.txNumber())) {
+                buckets.get(Math.floorMod(rec.block().hashCode(), nbuckets)).add(rec);
+                undone++;
+            }
+        }
+
+        if (workers == null)
+            undoAll(tx, buckets.get(0));
+        else
+            undoInParallel(workers, buckets);
+        event.emit(scanned, undone, nbuckets);
+    }
+
+    /**
+     * Undo each bucket of records on its own worker transaction,
+     * and commit the workers so that the restored pages are flushed.
+     * Buckets partition the blocks, so the workers never contend
+     * for a lock.
+     */
+    private void undoInParallel(Supplier<Transaction> workers, List<List<LogRecord>> buckets) {
+        ExecutorService pool = Executors.newFixedThreadPool(buckets.size());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (List<LogRecord> bucket : buckets) {
+                if (bucket.isEmpty())
+                    continue;
+                results.add(pool.submit(() -> {
+                    Transaction worker = workers.get();
+                    undoAll(worker, bucket);
+                    worker.commit();
+                }));
+            }
+            for (Future<?> f : results)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("recovery interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("recovery failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void undoAll(Transaction tx, List<LogRecord> recs) {
+        for (LogRecord rec : recs)
+            rec.undo(tx);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks restart recovery.
+ * A crash is simulated by writing the log records of unfinished
+ * transactions directly, together with the changed pages they
+ * describe, and of one transaction that committed. Recovery in a
+ * new set of managers must undo exactly the unfinished updates,
+ * spread over its worker transactions, and report the work it
+ * did as a flight recorder event.
+ *
+ * Usage: java simpledb.tx.recovery.RecoveryTest
+ */
+public class RecoveryTest {
+    private static final int BLOCK_SIZE = 400;
+    private static final int BLOCKS = 64;
+    private static final int CRASHED = 16; // unfinished transactions
+    private static final int FIRST_TXNUM = 1_000_000; // beyond any real transaction
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File("recoverytest" + System.nanoTime());
+        FileMgr fm = new FileMgr(dir, BLOCK_SIZE);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 16);
+        Transaction tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = tx.append("data");
+            tx.pin(blk);
+            tx.setInt(blk, 0, i, true);
+            tx.unpin(blk);
+        }
+        tx.commit();
+
+        for (int t = 0; t < CRASHED; t++)
+            StartRecord.writeToLog(lm, FIRST_TXNUM + t);
+        int committed = FIRST_TXNUM + CRASHED;
+        StartRecord.writeToLog(lm, committed);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = new BlockId("data", i);
+            SetIntRecord.writeToLog(lm, FIRST_TXNUM + i % CRASHED, blk, 0, i);
+            SetIntRecord.writeToLog(lm, committed, blk, Integer.BYTES, 0);
+            Page p = new Page(BLOCK_SIZE);
+            fm.read(blk, p);
+            p.setInt(0, -1);
+            p.setInt(Integer.BYTES, i + 1);
+            fm.write(blk, p);
+        }
+        lm.flush(CommitRecord.writeToLog(lm, committed));
+
+        Path jfr = Files.createTempFile("recoverytest", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("simpledb.Recovery");
+            recording.start();
+            FileMgr fm2 = new FileMgr(dir, BLOCK_SIZE);
+            LogMgr lm2 = new LogMgr(fm2, "log");
+            BufferMgr bm2 = new BufferMgr(fm2, lm2, 16);
+            Transaction r = new Transaction(fm2, lm2, bm2);
+            r.recover();
+            r.commit();
+            recording.stop();
+            recording.dump(jfr);
+
+            tx = new Transaction(fm2, lm2, bm2);
+            for (int i = 0; i < BLOCKS; i++) {
+                BlockId blk = new BlockId("data", i);
+                tx.pin(blk);
+                check(tx.getInt(blk, 0) == i, "unfinished update of block " + i + " was not undone");
+                check(tx.getInt(blk, Integer.BYTES) == i + 1, "committed update of block " + i + " was undone");
+                tx.unpin(blk);
+            }
+            tx.commit();
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfr);
+        Files.delete(jfr);
+        events.removeIf(e -> !e.getEventType().getName().equals("simpledb.Recovery"));
+        check(events.size() == 1, "expected one recovery event, found " + events.size());
+        RecordedEvent event = events.get(0);
+        check(event.getInt("undone") == BLOCKS, "event reports " + event.getInt("undone") + " records undone");
+        check(event.getInt("scanned") > BLOCKS, "event reports " + event.getInt("scanned") + " records scanned");
+        check(event.getInt("workers") == Runtime.getRuntime().availableProcessors(), "event reports the wrong workers");
+        System.out.println("RecoveryTest passed");
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
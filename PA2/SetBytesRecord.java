@@ -0,0 +1,168 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.PageWriter;
+import simpledb.tx.Transaction;
+
+/**
+ * A log record holding the before-images of several regions of a block.
+ * One record covers the fields written by a
+ * {@link PageWriter} batch, so a multi-field update
+ * produces a single log record, and each region is saved as its own
+ * (offset, before-image) pair, so writes far apart in the block do
+ * not log the bytes between them.
+ * Recovery is undo-only, so no after-image is kept.
+ */
+public class SetBytesRecord implements LogRecord {
+    /**
+     * The bytes each region adds to a record besides its image:
+     * its offset and the length of its image.
+     */
+    public static final int REGION_HEADER = 2 * Integer.BYTES;
+
+    private int txnum;
+    private int[] offsets;
+    private byte[][] images;
+    private BlockId blk;
+
+    /**
+     * Create a new setbytes log record.
+     *
+     * @param p the page containing the log values
+     */
+    public SetBytesRecord(Page p) {
+        int tpos = Integer.BYTES;
+        txnum = p.getInt(tpos);
+        int fpos = tpos + Integer.BYTES;
+        String filename = p.getString(fpos);
+        int bpos = fpos + Page.maxLength(filename.length());
+        int blknum = p.getInt(bpos);
+        blk = new BlockId(filename, blknum);
+        int npos = bpos + Integer.BYTES;
+        int n = p.getInt(npos);
+        offsets = new int[n];
+        images = new byte[n][];
+        int pos = npos + Integer.BYTES;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = p.getInt(pos);
+            images[i] = p.getBytes(pos + Integer.BYTES);
+            pos += REGION_HEADER + images[i].length;
+        }
+    }
+
+    /**
+     * Create a setbytes record for a region that is about
+     * to be modified, without writing it to the log.
+     *
+     * @param txnum  the ID of the modifying transaction
+     * @param blk    the modified block
+     * @param offset the start of the region
+     * @param image  the current contents of the region
+     */
+    SetBytesRecord(int txnum, BlockId blk, int offset, byte[] image) {
+        this(txnum, blk, new int[] { offset }, new byte[][] { image });
+    }
+
+    /**
+     * Create a setbytes record for several regions that are about
+     * to be modified, without writing it to the log.
+     *
+     * @param txnum   the ID of the modifying transaction
+     * @param blk     the modified block
+     * @param offsets the start of each region
+     * @param images  the current contents of each region
+     */
+    SetBytesRecord(int txnum, BlockId blk, int[] offsets, byte[][] images) {
+        this.txnum = txnum;
+        this.blk = blk;
+        this.offsets = offsets;
+        this.images = images;
+    }
+
+    public int op() {
+        return SETBYTES;
+    }
+
+    public int txNumber() {
+        return txnum;
+    }
+
+    public BlockId block() {
+        return blk;
+    }
+
+    public String toString() {
+        int bytes = 0;
+        for (byte[] image : images)
+            bytes += image.length;
+        return "<SETBYTES " + txnum + " " + blk + " " + offsets.length + " " + bytes + ">";
+    }
+
+    /**
+     * Replace the regions saved in the log record with their
+     * before-images. The method pins a buffer to the specified
+     * block, writes the saved bytes back, and unpins the buffer.
+     *
+     * @see simpledb.tx.recovery.LogRecord#undo(Transaction)
+     */
+    public void undo(Transaction tx) {
+        tx.pin(blk);
+        PageWriter w = tx.pageWriter(blk);
+        for (int i = 0; i < offsets.length; i++)
+            w.setRegion(offsets[i], images[i]);
+        w.apply(false); // don't log the undo!
+        tx.unpin(blk);
+    }
+
+    /**
+     * A static method to write a setbytes record to the log.
+     * This log record contains the SETBYTES operator,
+     * followed by the transaction id, the filename and number
+     * of the modified block, the number of regions, and the
+     * offset and before-image of each region.
+     *
+     * @return the LSN of the last log value
+     */
+    public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int[] offsets, byte[][] images) {
+        int tpos = Integer.BYTES;
+        int fpos = tpos + Integer.BYTES;
+        int bpos = fpos + Page.maxLength(blk.fileName().length());
+        int npos = bpos + Integer.BYTES;
+        int length = headerLength(blk);
+        for (byte[] image : images)
+            length += REGION_HEADER + image.length;
+        byte[] rec = new byte[length];
+        Page p = new Page(rec);
+        p.setInt(0, SETBYTES);
+        p.setInt(tpos, txnum);
+        p.setString(fpos, blk.fileName());
+        p.setInt(bpos, blk.number());
+        p.setInt(npos, offsets.length);
+        int pos = npos + Integer.BYTES;
+        for (int i = 0; i < offsets.length; i++) {
+            p.setInt(pos, offsets[i]);
+            p.setBytes(pos + Integer.BYTES, images[i]);
+            pos += REGION_HEADER + images[i].length;
+        }
+        return lm.append(rec);
+    }
+
+    /**
+     * Returns the number of bytes a single setbytes record for
+     * the specified block has for its regions, counting
+     * {@link #REGION_HEADER} bytes for each region as well as
+     * its image.
+     *
+     * @return the space for regions, in bytes
+     */
+    public static int regionCapacity(LogMgr lm, BlockId blk) {
+        return lm.maxRecordSize() - headerLength(blk);
+    }
+
+    private static int headerLength(BlockId blk) {
+        // operator, txnum, filename, block number, region count
+        return 4 * Integer.BYTES + Page.maxLength(blk.fileName().length());
+    }
+}
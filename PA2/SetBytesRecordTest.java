@@ -0,0 +1,100 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks the setbytes records written for page writer batches.
+ * Two small writes at opposite ends of a block must log a small
+ * record, not the bytes between them; a batch rewriting the whole
+ * block must be split over several records that fit in the log.
+ * The before-images must restore the block both when the transaction
+ * rolls back and when its records are read back from the log and
+ * undone, as recovery does.
+ *
+ * Usage: java simpledb.tx.recovery.SetBytesRecordTest
+ */
+public class SetBytesRecordTest {
+    private static final int BLOCK_SIZE = 1024;
+
+    public static void main(String[] args) {
+        FileMgr fm = new FileMgr(new File("setbytesrecordtest" + System.nanoTime()), BLOCK_SIZE);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 8);
+        Transaction tx = new Transaction(fm, lm, bm);
+        BlockId blk = tx.append("data");
+        tx.pin(blk);
+        byte[] original = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            original[i] = (byte) i;
+        tx.pageWriter(blk).setRegion(0, original).apply(false);
+        tx.commit();
+
+        tx = new Transaction(fm, lm, bm);
+        tx.pin(blk);
+        tx.pageWriter(blk).setInt(0, -1).setInt(BLOCK_SIZE - Integer.BYTES, -1).apply(true);
+        List<byte[]> recs = records(lm);
+        check(recs.size() == 1, "a two-write batch logged " + recs.size() + " records");
+        check(recs.get(0).length < 100, "a two-write batch logged " + recs.get(0).length + " bytes");
+        tx.pageWriter(blk).setRegion(0, new byte[BLOCK_SIZE]).apply(true);
+        recs = records(lm);
+        check(recs.size() >= 3, "a whole-block batch was not split");
+        for (byte[] rec : recs)
+            check(rec.length <= lm.maxRecordSize(), "a record is too large for the log");
+        tx.rollback();
+        check(Arrays.equals(contents(fm, lm, bm, blk), original), "rollback did not restore the block");
+
+        tx = new Transaction(fm, lm, bm);
+        tx.pin(blk);
+        tx.pageWriter(blk).setInt(0, -1).setString(500, "middle").setInt(BLOCK_SIZE - Integer.BYTES, -1).apply(true);
+        tx.pageWriter(blk).setRegion(100, new byte[BLOCK_SIZE - 200]).apply(true);
+        List<byte[]> logged = records(lm);
+        tx.commit();
+        Transaction undoer = new Transaction(fm, lm, bm);
+        for (byte[] rec : logged)
+            LogRecord.createLogRecord(rec).undo(undoer);
+        undoer.commit();
+        check(Arrays.equals(contents(fm, lm, bm, blk), original), "undo from the log did not restore the block");
+        System.out.println("SetBytesRecordTest passed");
+    }
+
+    /**
+     * Returns the setbytes records written since the most recent
+     * start record, newest first.
+     */
+    private static List<byte[]> records(LogMgr lm) {
+        List<byte[]> result = new ArrayList<>();
+        Iterator<byte[]> it = lm.iterator();
+        while (it.hasNext()) {
+            byte[] bytes = it.next();
+            LogRecord rec = LogRecord.createLogRecord(bytes);
+            if (rec.op() == LogRecord.START)
+                break;
+            if (rec.op() == LogRecord.SETBYTES)
+                result.add(bytes);
+        }
+        return result;
+    }
+
+    private static byte[] contents(FileMgr fm, LogMgr lm, BufferMgr bm, BlockId blk) {
+        Transaction tx = new Transaction(fm, lm, bm);
+        tx.pin(blk);
+        byte[] result = tx.read(blk, p -> p.getRegion(0, BLOCK_SIZE));
+        tx.commit();
+        return result;
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -0,0 +1,258 @@
+package simpledb.record;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.file.BlockId;
+import simpledb.tx.PageWriter;
+import simpledb.tx.Transaction;
+
+/**
+ * Store variable-length records in a block.
+ * The block starts with a header, followed by a slot directory
+ * holding the offset of each record, or 0 for an empty slot.
+ * Records are stored length-prefixed, in the format of
+ * {@link simpledb.file.Page#setBytes}, packed from the end of the
+ * block towards the directory. A record keeps its slot for as long
+ * as it exists, so a {@link RID} stays valid when compaction moves
+ * the record within the block.
+ * A block of zeros is an empty slotted page.
+ */
+public class SlottedPage {
+    private static final int SLOT_COUNT = 0; // slots in the directory
+    private static final int FREE_PTR = Integer.BYTES; // start of the record area; 0 in a new block
+    private static final int FRAGMENTED = 2 * Integer.BYTES; // bytes freed inside the record area
+    private static final int HEADER = 3 * Integer.BYTES;
+    private static final int SLOT_SIZE = Integer.BYTES;
+    private static final int EMPTY = 0;
+
+    private Transaction tx;
+    private BlockId blk;
+    private int blocksize;
+
+    /**
+     * Create a slotted page for the specified block, and pin it.
+     *
+     * @param tx  the transaction that accesses the block
+     * @param blk a reference to the block
+     */
+    public SlottedPage(Transaction tx, BlockId blk) {
+        this.tx = tx;
+        this.blk = blk;
+        this.blocksize = tx.blockSize();
+        tx.pin(blk);
+    }
+
+    /**
+     * Unpin the block.
+     */
+    public void close() {
+        tx.unpin(blk);
+    }
+
+    public BlockId block() {
+        return blk;
+    }
+
+    /**
+     * Return the length of the largest record an empty page can hold.
+     *
+     * @param blocksize the block size
+     * @return the maximum record length
+     */
+    public static int maxRecordLength(int blocksize) {
+        return blocksize - HEADER - SLOT_SIZE - Integer.BYTES;
+    }
+
+    /**
+     * Return the largest record that the page can accept,
+     * counting the space compaction would recover.
+     *
+     * @return the largest insertable record length, or 0 if none fits
+     */
+    public int freeSpace() {
+        int slotNeeded = (findEmptySlot() < 0) ? SLOT_SIZE : 0;
+        return Math.max(0, contiguousSpace() + fragmented() - slotNeeded - Integer.BYTES);
+    }
+
+    /**
+     * Return the record in the specified slot.
+     *
+     * @param slot the slot of a record
+     * @return the record's bytes, or null if the slot is empty
+     */
+    public byte[] get(int slot) {
+        int offset = offsetOf(slot);
+        return (offset == EMPTY) ? null : tx.getBytes(blk, offset);
+    }
+
+    /**
+     * Insert a record into an empty slot, creating a new slot if
+     * none is empty. The page is compacted if the record fits only
+     * in the space freed by earlier deletions.
+     *
+     * @param rec the record's bytes
+     * @return the record's slot, or -1 if the record does not fit
+     */
+    public int insert(byte[] rec) {
+        int slot = findEmptySlot();
+        int count = tx.getInt(blk, SLOT_COUNT);
+        int newSlots = (slot < 0) ? 1 : 0;
+        if (!makeRoom(Integer.BYTES + rec.length, newSlots * SLOT_SIZE))
+            return -1;
+        if (slot < 0)
+            slot = count;
+        PageWriter header = tx.pageWriter(blk).setInt(SLOT_COUNT, count + newSlots);
+        place(slot, rec, header);
+        return slot;
+    }
+
+    /**
+     * Replace the record in the specified slot. A record that does
+     * not grow is rewritten in place; otherwise it is moved within
+     * the block, compacting it if necessary.
+     *
+     * @param slot the slot of an existing record
+     * @param rec  the record's new bytes
+     * @return false if the new record does not fit in the block,
+     *         in which case the old record is left unchanged
+     * @throws IllegalArgumentException if the slot holds no record
+     */
+    public boolean update(int slot, byte[] rec) {
+        int offset = recordOffset(slot);
+        int oldLength = tx.getInt(blk, offset);
+        if (rec.length <= oldLength) {
+            tx.pageWriter(blk).setBytes(offset, rec).apply(true);
+            addFragmented(oldLength - rec.length);
+            return true;
+        }
+        if (contiguousSpace() + fragmented() + oldLength < rec.length)
+            return false;
+        delete(slot);
+        makeRoom(Integer.BYTES + rec.length, 0); // the check above guarantees room
+        place(slot, rec, tx.pageWriter(blk));
+        return true;
+    }
+
+    /**
+     * Delete the record in the specified slot.
+     * Its space is reclaimed by the next compaction.
+     *
+     * @param slot the slot of an existing record
+     * @throws IllegalArgumentException if the slot holds no record
+     */
+    public void delete(int slot) {
+        int offset = recordOffset(slot);
+        int length = tx.getInt(blk, offset);
+        tx.setInt(blk, slotPos(slot), EMPTY, true);
+        addFragmented(Integer.BYTES + length);
+    }
+
+    /**
+     * Return the first used slot after the specified slot.
+     *
+     * @param slot a slot, or -1 to start from the beginning
+     * @return the next used slot, or -1 if there is none
+     */
+    public int nextAfter(int slot) {
+        int count = tx.getInt(blk, SLOT_COUNT);
+        for (int i = slot + 1; i < count; i++)
+            if (offsetOf(i) != EMPTY)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Move the records to the end of the block, leaving all free
+     * space in one piece between the directory and the records.
+     * The page is rewritten as one logged batch.
+     */
+    public void compact() {
+        int count = tx.getInt(blk, SLOT_COUNT);
+        List<Integer> slots = new ArrayList<>();
+        List<byte[]> recs = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            if (offsetOf(i) != EMPTY) {
+                slots.add(i);
+                recs.add(get(i));
+            }
+        PageWriter w = tx.pageWriter(blk);
+        int ptr = blocksize;
+        for (int i = 0; i < slots.size(); i++) {
+            ptr -= Integer.BYTES + recs.get(i).length;
+            w.setBytes(ptr, recs.get(i)).setInt(slotPos(slots.get(i)), ptr);
+        }
+        w.setInt(FREE_PTR, ptr).setInt(FRAGMENTED, 0).apply(true);
+    }
+
+    /**
+     * Ensure that the free space between the directory and the records
+     * can hold the given bytes, compacting the page if that helps.
+     */
+    private boolean makeRoom(int recordBytes, int slotBytes) {
+        int needed = recordBytes + slotBytes;
+        int contiguous = contiguousSpace();
+        if (contiguous >= needed)
+            return true;
+        if (contiguous + fragmented() < needed)
+            return false;
+        compact();
+        return true;
+    }
+
+    /**
+     * Write the record at the start of the free space and point the
+     * slot at it, adding the writes to the header batch, which is
+     * then applied as one logged update.
+     */
+    private void place(int slot, byte[] rec, PageWriter header) {
+        int offset = freePtr() - Integer.BYTES - rec.length;
+        header.setBytes(offset, rec).setInt(FREE_PTR, offset).setInt(slotPos(slot), offset).apply(true);
+    }
+
+    private int findEmptySlot() {
+        int count = tx.getInt(blk, SLOT_COUNT);
+        for (int i = 0; i < count; i++)
+            if (offsetOf(i) == EMPTY)
+                return i;
+        return -1;
+    }
+
+    private int contiguousSpace() {
+        return freePtr() - slotPos(tx.getInt(blk, SLOT_COUNT));
+    }
+
+    private int freePtr() {
+        int ptr = tx.getInt(blk, FREE_PTR);
+        return (ptr == 0) ? blocksize : ptr;
+    }
+
+    private int fragmented() {
+        return tx.getInt(blk, FRAGMENTED);
+    }
+
+    private void addFragmented(int bytes) {
+        if (bytes > 0)
+            tx.setInt(blk, FRAGMENTED, fragmented() + bytes, true);
+    }
+
+    /**
+     * Return the offset of the record in the specified slot,
+     * which must exist and hold a record; reading an empty slot's
+     * length would read the page header instead.
+     */
+    private int recordOffset(int slot) {
+        int offset = (slot >= 0 && slot < tx.getInt(blk, SLOT_COUNT)) ? offsetOf(slot) : EMPTY;
+        if (offset == EMPTY)
+            throw new IllegalArgumentException("slot " + slot + " of " + blk + " holds no record");
+        return offset;
+    }
+
+    private int offsetOf(int slot) {
+        return tx.getInt(blk, slotPos(slot));
+    }
+
+    private int slotPos(int slot) {
+        return HEADER + slot * SLOT_SIZE;
+    }
+}
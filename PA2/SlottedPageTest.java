@@ -0,0 +1,89 @@
+package simpledb.record;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks the slotted page layout.
+ * Deleted slots must be reused, a record must keep its slot when
+ * compaction moves it, and the space of deleted records must be
+ * reclaimed. Deleting or updating a slot that holds no record must
+ * fail without changing the page, and a rollback must restore it.
+ *
+ * Usage: java simpledb.record.SlottedPageTest
+ */
+public class SlottedPageTest {
+    private static final int BLOCK_SIZE = 400;
+
+    public static void main(String[] args) {
+        FileMgr fm = new FileMgr(new File("slottedpagetest" + System.nanoTime()), BLOCK_SIZE);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 8);
+        Transaction tx = new Transaction(fm, lm, bm);
+        BlockId blk = tx.append("data");
+        SlottedPage sp = new SlottedPage(tx, blk);
+
+        int[] slots = new int[4];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = sp.insert(record(i, 60));
+        check(Arrays.equals(slots, new int[] { 0, 1, 2, 3 }), "slots " + Arrays.toString(slots));
+        int free = sp.freeSpace();
+        sp.delete(1);
+        check(sp.get(1) == null, "deleted record still readable");
+        check(sp.freeSpace() >= free + Integer.BYTES + 60, "delete did not free the record's space");
+        free = sp.freeSpace();
+        check(fails(() -> sp.delete(1)), "a second delete of a slot was accepted");
+        check(fails(() -> sp.update(1, record(9, 10))), "an update of an empty slot was accepted");
+        check(fails(() -> sp.delete(slots.length)), "a delete past the directory was accepted");
+        check(sp.freeSpace() == free, "a rejected delete changed the free space");
+
+        check(sp.insert(record(7, 10)) == 1, "the empty slot was not reused");
+        check(sp.update(2, record(2, 120)), "a record that fits after compaction was rejected");
+        check(Arrays.equals(sp.get(2), record(2, 120)), "the updated record was not moved intact");
+        check(Arrays.equals(sp.get(3), record(3, 60)), "compaction changed another record");
+        sp.delete(0);
+        sp.delete(3);
+        byte[] big = record(5, sp.freeSpace());
+        int slot = sp.insert(big);
+        check(slot >= 0 && Arrays.equals(sp.get(slot), big), "the reclaimed space could not be used");
+        sp.close();
+        tx.rollback();
+
+        tx = new Transaction(fm, lm, bm);
+        SlottedPage empty = new SlottedPage(tx, blk);
+        check(empty.nextAfter(-1) == -1, "rollback left records in the page");
+        check(empty.freeSpace() == SlottedPage.maxRecordLength(BLOCK_SIZE), "rollback left the page unusable");
+        empty.close();
+        tx.commit();
+        System.out.println("SlottedPageTest passed");
+    }
+
+    private static byte[] record(int fill, int length) {
+        byte[] rec = new byte[length];
+        Arrays.fill(rec, (byte) fill);
+        return rec;
+    }
+
+    /**
+     * Returns true if the action throws an IllegalArgumentException.
+     */
+    private static boolean fails(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
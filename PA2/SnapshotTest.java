@@ -0,0 +1,150 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.ConcurrencyMgr;
+import simpledb.tx.concurrency.LockAbortException;
+import simpledb.tx.concurrency.LockStats;
+
+/**
+ * Checks snapshot transactions.
+ * A snapshot must see the blocks as they were when it began: not the
+ * uncommitted changes of a writer, nor commits made after it began.
+ * It must read while a writer holds X-locks on every block it reads,
+ * without requesting a lock. Readers summing balances that writers
+ * transfer between blocks, some of the writers rolling back partway,
+ * must always see the same sum. Once every transaction is done,
+ * including one that rolled back, the version store must be empty.
+ *
+ * Usage: java simpledb.tx.SnapshotTest
+ */
+public class SnapshotTest {
+    private static final int BLOCKS = 8;
+    private static final int BALANCE = 1000;
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int TRANSFERS = 300; // per writer
+    private static final int SNAPSHOTS = 2000; // per reader
+
+    public static void main(String[] args) throws Exception {
+        FileMgr fm = new FileMgr(new File("snapshottest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, 64);
+        Transaction.enableSnapshots(fm.blockSize());
+        Transaction tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = tx.append("data");
+            tx.pin(blk);
+            tx.setInt(blk, 0, BALANCE, true);
+        }
+        tx.commit();
+
+        Transaction old = Transaction.beginSnapshot(fm, lm, bm);
+        Transaction writer = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = new BlockId("data", i);
+            writer.pin(blk);
+            writer.setInt(blk, 0, -1, true);
+        }
+        LockStats stats = ConcurrencyMgr.lockStats();
+        long requests = stats.getSLockRequests() + stats.getXLockRequests();
+        int[] seen = new int[1];
+        Thread reader = new Thread(() -> seen[0] = sum(Transaction.beginSnapshot(fm, lm, bm)));
+        reader.start();
+        reader.join(10_000);
+        check(!reader.isAlive(), "a snapshot waited for a writer's X-locks");
+        check(seen[0] == BLOCKS * BALANCE, "a snapshot saw uncommitted changes");
+        check(stats.getSLockRequests() + stats.getXLockRequests() == requests, "a snapshot requested a lock");
+        writer.commit();
+        check(sum(old) == BLOCKS * BALANCE, "a snapshot saw a commit made after it began");
+        check(sum(Transaction.beginSnapshot(fm, lm, bm)) == -BLOCKS, "a new snapshot missed a commit");
+        tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = new BlockId("data", i);
+            tx.pin(blk);
+            tx.setInt(blk, 0, BALANCE, true);
+        }
+        tx.commit();
+
+        AtomicInteger inconsistent = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++)
+            threads.add(new Thread(() -> transfers(fm, lm, bm)));
+        for (int r = 0; r < READERS; r++)
+            threads.add(new Thread(() -> {
+                for (int k = 0; k < SNAPSHOTS; k++)
+                    if (sum(Transaction.beginSnapshot(fm, lm, bm)) != BLOCKS * BALANCE)
+                        inconsistent.incrementAndGet();
+            }));
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        check(inconsistent.get() == 0, inconsistent.get() + " snapshots saw an inconsistent sum");
+        check(sum(Transaction.beginSnapshot(fm, lm, bm)) == BLOCKS * BALANCE, "the transfers changed the sum");
+        tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = new BlockId("data", i);
+            tx.pin(blk);
+            tx.setInt(blk, 0, 0, true);
+        }
+        tx.rollback();
+        int left = Transaction.versionStore().versionedBlocks();
+        check(left == 0, left + " blocks still have versions");
+        System.out.println("SnapshotTest passed");
+    }
+
+    /**
+     * Moves money between random blocks. About one transfer in five
+     * rolls back after its withdrawal, as does any that Wait-Die aborts.
+     */
+    private static void transfers(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        Random rnd = new Random();
+        for (int k = 0; k < TRANSFERS; k++) {
+            Transaction tx = new Transaction(fm, lm, bm);
+            try {
+                BlockId from = new BlockId("data", rnd.nextInt(BLOCKS));
+                BlockId to = new BlockId("data", rnd.nextInt(BLOCKS));
+                int amount = 1 + rnd.nextInt(10);
+                tx.pin(from);
+                tx.pin(to);
+                tx.setInt(from, 0, tx.getInt(from, 0) - amount, true);
+                if (rnd.nextInt(5) == 0) {
+                    tx.rollback();
+                    continue;
+                }
+                tx.setInt(to, 0, tx.getInt(to, 0) + amount, true);
+                tx.commit();
+            } catch (LockAbortException e) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Sums the balances as the snapshot sees them, and ends it.
+     */
+    private static int sum(Transaction snapshot) {
+        int sum = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            BlockId blk = new BlockId("data", i);
+            snapshot.pin(blk);
+            sum += snapshot.getInt(blk, 0);
+        }
+        snapshot.commit();
+        return sum;
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -1,10 +1,20 @@
 package simpledb.tx;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
 import simpledb.buffer.Buffer;
 import simpledb.buffer.BufferMgr;
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
+import simpledb.file.PageString;
 import simpledb.log.LogMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
 import simpledb.tx.recovery.RecoveryMgr;
@@ -17,14 +27,28 @@ import simpledb.tx.recovery.RecoveryMgr;
  * @author Edward Sciore
  */
 public class Transaction {
-    private static int nextTxId = 0;
     private static final int END_OF_FILE = -1;
+    private static int nextTxId = 0;
+    private static volatile VersionStore versionStore = null; // null unless snapshots are enabled
     private RecoveryMgr recoveryMgr;
     private ConcurrencyMgr concurMgr;
     private BufferMgr bm;
     private FileMgr fm;
+    private LogMgr lm;
     private int txId; // transaction id
     private BufferList mybuffers;
+    private boolean readOnly; // no recovery manager, no held locks
+    private VersionStore versions; // the store when this transaction began, or null
+    private Set<BlockId> versioned = new HashSet<>(); // blocks whose before-image this transaction saved
+    private long snapshotTs = -1; // start time of a snapshot transaction
+    private Map<BlockId, Page> snapshotPages; // blocks as of the snapshot, read so far
+    private boolean optimistic; // reads validated and writes installed at commit
+    private boolean finishing; // an optimistic transaction is committing or rolling back
+    private Map<BlockId, Long> readSet; // block -> version first read
+    private Map<BlockId, PageWriter> writeSet; // block -> buffered writes
+    private Map<BlockId, Page> privatePages; // blocks with the buffered writes applied
+    private Map<String, Integer> sizeSet; // file -> size first read, less this transaction's appends
+    private Map<String, Integer> appended; // file -> blocks this transaction appended
 
     /**
      * Create a new transaction and its associated
@@ -39,12 +63,126 @@ public class Transaction {
      * is called first.
      */
     public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        this(fm, lm, bm, nexttxIdber());
+    }
+
+    /**
+     * Create a new transaction that reuses the ID of an earlier,
+     * rolled-back transaction.
+     * Since the ID doubles as the Wait-Die timestamp, a restarted
+     * transaction keeps its original priority instead of becoming
+     * the youngest one in the system.
+     * Used by {@link TransactionRunner}.
+     * 
+     * @param txId the ID of the rolled-back transaction
+     */
+    Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, int txId) {
+        this(fm, lm, bm, txId, false);
+    }
+
+    private Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, int txId, boolean readOnly) {
         this.fm = fm;
+        this.lm = lm;
         this.bm = bm;
-        txId = nexttxIdber();
-        recoveryMgr = new RecoveryMgr(this, txId, lm, bm);
+        this.txId = txId;
+        this.readOnly = readOnly;
+        this.versions = versionStore;
+        if (!readOnly)
+            recoveryMgr = new RecoveryMgr(this, txId, lm, bm);
         concurMgr = new ConcurrencyMgr(txId);
-        mybuffers = new BufferList(bm);
+        mybuffers = new BufferList(bm, txId);
+    }
+
+    /**
+     * Create a read-only transaction.
+     * A read-only transaction writes nothing to the log and holds
+     * no locks: each read locks its block only for as long as the read
+     * takes. Each read therefore sees the latest committed value, and a
+     * writer is never delayed by more than a single read.
+     * Its setters and {@link #append(String)} throw
+     * {@link UnsupportedOperationException}.
+     * 
+     * @return the new transaction
+     */
+    public static Transaction beginReadOnly(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        return new Transaction(fm, lm, bm, nexttxIdber(), true);
+    }
+
+    /**
+     * Create an optimistic transaction.
+     * An optimistic transaction holds no locks while it runs.
+     * Each read records the version of its block, and each write is
+     * buffered in a private copy of the block. At commit the transaction
+     * locks the blocks it used and checks that none of the versions it
+     * read has changed. If one has, commit throws
+     * {@link ValidationAbortException} and the transaction must be
+     * rolled back. Otherwise the buffered writes are installed and
+     * logged, one log record per block, and the commit completes.
+     * {@link #append(String)} still locks the new block immediately,
+     * and the blocks written must stay pinned until the commit.
+     * 
+     * @return the new transaction
+     */
+    public static Transaction beginOptimistic(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        return optimistic(fm, lm, bm, nexttxIdber());
+    }
+
+    /**
+     * Create an optimistic transaction with the specified ID.
+     * Used by {@link TransactionRunner} to restart one.
+     */
+    static Transaction optimistic(FileMgr fm, LogMgr lm, BufferMgr bm, int txId) {
+        Transaction tx = new Transaction(fm, lm, bm, txId, false);
+        tx.optimistic = true;
+        tx.readSet = new HashMap<>();
+        tx.writeSet = new LinkedHashMap<>();
+        tx.privatePages = new HashMap<>();
+        tx.sizeSet = new HashMap<>();
+        tx.appended = new HashMap<>();
+        return tx;
+    }
+
+    /**
+     * Turn on multi-version snapshots.
+     * From then on, every writer saves the before-image of each block
+     * it modifies in a version store, so that snapshot transactions
+     * can read old versions. Must be called during system startup,
+     * before any transaction that writes has begun.
+     * 
+     * @param blocksize the database block size
+     */
+    public static synchronized void enableSnapshots(int blocksize) {
+        if (versionStore == null)
+            versionStore = new VersionStore(blocksize);
+    }
+
+    /**
+     * Returns the version store, or null if snapshots are not enabled.
+     * 
+     * @return the version store
+     */
+    static VersionStore versionStore() {
+        return versionStore;
+    }
+
+    /**
+     * Create a read-only snapshot transaction.
+     * The transaction sees every block as it was when the transaction
+     * began, regardless of later commits, and its getInt, getString
+     * and getBytes calls take no lock at all.
+     * The size of a file is not versioned.
+     * 
+     * @return the new transaction
+     * @throws IllegalStateException if snapshots are not enabled
+     * @see #enableSnapshots(int)
+     */
+    public static Transaction beginSnapshot(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        if (versionStore == null)
+            throw new IllegalStateException("snapshots are not enabled");
+        Transaction tx = new Transaction(fm, lm, bm, nexttxIdber(), true);
+        tx.snapshotTs = tx.versions.beginSnapshot();
+        tx.snapshotPages = new HashMap<>();
+        return tx;
     }
 
     /**
@@ -54,10 +192,34 @@ public class Transaction {
      * release all locks, and unpin any pinned buffers.
      */
     public void commit() {
-        recoveryMgr.commit();
-        System.out.println("transaction " + txId + " committed");
+        commit(Durability.SYNC);
+    }
+
+    /**
+     * Commit the current transaction with the specified durability.
+     * With {@link Durability#ASYNC}, the commit record is written
+     * to the log but not flushed; the log manager's background flusher
+     * makes it durable shortly afterwards. The modified pages are
+     * written in either case, as {@link Durability#ASYNC} explains.
+     * Callers that later need confirmation can pass the returned
+     * LSN to {@link LogMgr#awaitDurable(int)}.
+     * The commit is reported to the flight recorder as a
+     * {@link TransactionEvent}.
+     * 
+     * @param durability whether to wait for the commit record to reach disk
+     * @return the LSN of the commit record
+     */
+    public int commit(Durability durability) {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        if (optimistic)
+            validateAndInstall();
+        int lsn = readOnly ? -1 : recoveryMgr.commit(durability == Durability.SYNC);
+        endVersions(true);
         concurMgr.release();
         mybuffers.unpinAll();
+        event.emit(txId, TransactionEvent.COMMIT, lsn);
+        return lsn;
     }
 
     /**
@@ -66,25 +228,34 @@ public class Transaction {
      * flush those buffers,
      * write and flush a rollback record to the log,
      * release all locks, and unpin any pinned buffers.
+     * The rollback is reported to the flight recorder as a
+     * {@link TransactionEvent}.
      */
     public void rollback() {
-        recoveryMgr.rollback();
-        System.out.println("transaction " + txId + " rolled back");
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        finishing = true;
+        if (!readOnly)
+            recoveryMgr.rollback();
+        endVersions(false);
         concurMgr.release();
         mybuffers.unpinAll();
+        event.emit(txId, TransactionEvent.ROLLBACK, -1);
     }
 
     /**
      * Flush all modified buffers.
      * Then go through the log, rolling back all
-     * uncommitted transactions. Finally,
+     * uncommitted transactions on a pool of worker
+     * transactions, one per group of blocks. Finally,
      * write a quiescent checkpoint record to the log.
      * This method is called during system startup,
      * before user transactions begin.
      */
     public void recover() {
+        checkWritable();
         bm.flushAll(txId);
-        recoveryMgr.recover();
+        recoveryMgr.recover(() -> new Transaction(fm, lm, bm));
     }
 
     /**
@@ -119,9 +290,7 @@ public class Transaction {
      * @return the integer stored at that offset
      */
     public int getInt(BlockId blk, int offset) {
-        concurMgr.sLock(blk);
-        Buffer buff = mybuffers.getBuffer(blk);
-        return buff.contents().getInt(offset);
+        return read(blk, p -> p.getInt(offset));
     }
 
     /**
@@ -135,9 +304,124 @@ public class Transaction {
      * @return the string stored at that offset
      */
     public String getString(BlockId blk, int offset) {
+        return read(blk, p -> p.getString(offset));
+    }
+
+    /**
+     * Return the byte array stored at the
+     * specified offset of the specified block.
+     * The method first obtains an SLock on the block,
+     * then it calls the buffer to retrieve the value.
+     * 
+     * @param blk    a reference to a disk block
+     * @param offset the byte offset within the block
+     * @return the byte array stored at that offset
+     */
+    public byte[] getBytes(BlockId blk, int offset) {
+        return read(blk, p -> p.getBytes(offset));
+    }
+
+    /**
+     * Read the string value stored at the specified offset
+     * of the specified block into a reusable holder,
+     * without creating a String.
+     * The block is locked as in {@link #getString(BlockId, int)}.
+     * 
+     * @param blk    a reference to a disk block
+     * @param offset the byte offset within the block
+     * @param view   the holder to overwrite
+     * @return the holder
+     */
+    public PageString getString(BlockId blk, int offset, PageString view) {
+        return read(blk, p -> p.getString(offset, view));
+    }
+
+    /**
+     * Compare the string value stored at the specified offset
+     * of the specified block with a character sequence,
+     * reading the page bytes in place.
+     * The block is locked as in {@link #getString(BlockId, int)}.
+     * 
+     * @param blk    a reference to a disk block
+     * @param offset the byte offset within the block
+     * @param val    the sequence to compare with
+     * @return a negative number, zero, or a positive number as the
+     *         stored string is less than, equal to, or greater than val
+     */
+    public int compareString(BlockId blk, int offset, CharSequence val) {
+        return read(blk, p -> p.compareString(offset, val));
+    }
+
+    /**
+     * Return the hash code of the string value stored at the specified
+     * offset of the specified block, equal to that of the String
+     * {@link #getString(BlockId, int)} would return.
+     * 
+     * @param blk    a reference to a disk block
+     * @param offset the byte offset within the block
+     * @return the string's hash code
+     */
+    public int hashString(BlockId blk, int offset) {
+        return read(blk, p -> p.hashString(offset));
+    }
+
+    /**
+     * Read the specified block through a function, which can
+     * read several values with a single lock check and latch.
+     * The block is locked as in {@link #getInt(BlockId, int)};
+     * a regular transaction first obtains an SLock on the block,
+     * then reads the buffer under its latch.
+     * 
+     * @param blk    a reference to a disk block
+     * @param reader the read, which must not modify the page
+     * @return the result of the read
+     */
+    public <T> T read(BlockId blk, Function<Page, T> reader) {
+        if (snapshotTs >= 0)
+            return reader.apply(snapshotPage(blk));
+        if (readOnly)
+            return readOnce(blk, reader);
+        if (optimistic)
+            return optimisticRead(blk, reader);
         concurMgr.sLock(blk);
-        Buffer buff = mybuffers.getBuffer(blk);
-        return buff.contents().getString(offset);
+        return mybuffers.getBuffer(blk).read(reader);
+    }
+
+    /**
+     * Read the specified block without obtaining a lock on it,
+     * holding only the buffer latch while the read runs.
+     * If another transaction held an XLock on the block during the
+     * read, the result may include its uncommitted changes, so the
+     * block is read again with an SLock, which waits for that
+     * transaction to finish. The result thus reflects committed
+     * changes and the transaction's own; a caller that combines
+     * several blocks must still validate that none has changed since,
+     * such as by checking their {@link #version(BlockId)}.
+     * Transactions that are not regular read as their mode requires.
+     * 
+     * @param blk    a reference to a disk block
+     * @param reader the read, which must not modify the page
+     * @return the result of the read
+     */
+    public <T> T peek(BlockId blk, Function<Page, T> reader) {
+        if (snapshotTs >= 0 || readOnly || optimistic)
+            return read(blk, reader);
+        long version = concurMgr.version(blk);
+        T result = mybuffers.getBuffer(blk).read(reader);
+        if (concurMgr.version(blk) == version && !concurMgr.xLockedByOther(blk))
+            return result;
+        return read(blk, reader);
+    }
+
+    /**
+     * Return the version of the specified block, which changes
+     * each time a transaction releases an XLock on it.
+     * 
+     * @param blk a reference to a disk block
+     * @return the block's current version
+     */
+    public long version(BlockId blk) {
+        return concurMgr.version(blk);
     }
 
     /**
@@ -155,13 +439,19 @@ public class Transaction {
      * @param val    the value to be stored
      */
     public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+        checkWritable();
+        if (optimistic && !finishing) {
+            privatePage(blk).setInt(offset, val);
+            writeSet.get(blk).setInt(offset, val);
+            return;
+        }
         concurMgr.xLock(blk);
         Buffer buff = mybuffers.getBuffer(blk);
+        saveVersion(blk, buff);
         int lsn = -1;
         if (okToLog)
             lsn = recoveryMgr.setInt(buff, offset, val);
-        Page p = buff.contents();
-        p.setInt(offset, val);
+        buff.write(p -> p.setInt(offset, val));
         buff.setModified(txId, lsn);
     }
 
@@ -180,44 +470,275 @@ public class Transaction {
      * @param val    the value to be stored
      */
     public void setString(BlockId blk, int offset, String val, boolean okToLog) {
+        checkWritable();
+        if (optimistic && !finishing) {
+            privatePage(blk).setString(offset, val);
+            writeSet.get(blk).setString(offset, val);
+            return;
+        }
         concurMgr.xLock(blk);
         Buffer buff = mybuffers.getBuffer(blk);
+        saveVersion(blk, buff);
         int lsn = -1;
         if (okToLog)
             lsn = recoveryMgr.setString(buff, offset, val);
-        Page p = buff.contents();
-        p.setString(offset, val);
+        buff.write(p -> p.setString(offset, val));
+        buff.setModified(txId, lsn);
+    }
+
+    /**
+     * Store a byte array at the specified offset
+     * of the specified block, in the format of
+     * {@link Page#setBytes(int, byte[])}.
+     * The method is a one-write {@link PageWriter} batch;
+     * it logs the before-image of the bytes it overwrites.
+     * 
+     * @param blk    a reference to the disk block
+     * @param offset a byte offset within that block
+     * @param val    the value to be stored
+     */
+    public void setBytes(BlockId blk, int offset, byte[] val, boolean okToLog) {
+        pageWriter(blk).setBytes(offset, val).apply(okToLog);
+    }
+
+    /**
+     * Return a writer that batches several field writes to
+     * the specified block into one log record.
+     * The block must be pinned when the batch is applied.
+     * 
+     * @param blk a reference to the disk block
+     * @return an empty batch for that block
+     */
+    public PageWriter pageWriter(BlockId blk) {
+        return new PageWriter(this, blk);
+    }
+
+    /**
+     * Apply a batch of raw writes to the specified block.
+     * The method obtains an XLock on the block, writes one log record
+     * with the before-image of each region written, performs the
+     * writes in order, and marks the buffer modified once.
+     * 
+     * @param blk     a reference to the disk block
+     * @param offsets the byte offset of each write
+     * @param values  the bytes of each write
+     */
+    void setRegions(BlockId blk, List<Integer> offsets, List<byte[]> values, boolean okToLog) {
+        checkWritable();
+        if (optimistic && !finishing) {
+            Page p = privatePage(blk);
+            PageWriter w = writeSet.get(blk);
+            for (int i = 0; i < offsets.size(); i++) {
+                p.setRegion(offsets.get(i), values.get(i));
+                w.setRegion(offsets.get(i), values.get(i));
+            }
+            return;
+        }
+        concurMgr.xLock(blk);
+        Buffer buff = mybuffers.getBuffer(blk);
+        saveVersion(blk, buff);
+        int lsn = -1;
+        if (okToLog) {
+            List<Integer> lengths = new ArrayList<>();
+            for (byte[] val : values)
+                lengths.add(val.length);
+            lsn = recoveryMgr.setRegions(buff, offsets, lengths);
+        }
+        buff.write(p -> {
+            for (int i = 0; i < offsets.size(); i++)
+                p.setRegion(offsets.get(i), values.get(i));
+        });
         buff.setModified(txId, lsn);
     }
 
     /**
      * Return the number of blocks in the specified file.
-     * This method first obtains an SLock on the
-     * "end of the file", before asking the file manager
-     * to return the file size.
+     * The size is read from the file manager without a lock,
+     * so it does not wait for transactions that are appending;
+     * a block appended by a concurrent transaction may or may not
+     * be counted, and a locking transaction is not protected from
+     * such phantom blocks. An optimistic transaction records the
+     * size on its first read and fails validation if another
+     * transaction has appended to the file since.
      * 
      * @param filename the name of the file
      * @return the number of blocks in the file
      */
     public int size(String filename) {
-        BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-        concurMgr.sLock(dummyblk);
-        return fm.length(filename);
+        int size = fm.length(filename);
+        if (optimistic && !finishing)
+            sizeSet.putIfAbsent(filename, size - appended.getOrDefault(filename, 0));
+        return size;
     }
 
     /**
      * Append a new block to the end of the specified file
      * and returns a reference to it.
-     * This method first obtains an XLock on the
-     * "end of the file", before performing the append.
+     * The file manager hands out the block number, and the
+     * method then obtains an XLock on the new block only, so
+     * concurrent appends to the same file do not wait for each other.
      * 
      * @param filename the name of the file
      * @return a reference to the newly-created disk block
      */
     public BlockId append(String filename) {
-        BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-        concurMgr.xLock(dummyblk);
-        return fm.append(filename);
+        checkWritable();
+        BlockId blk = fm.append(filename);
+        concurMgr.xLock(blk);
+        if (optimistic)
+            appended.merge(filename, 1, Integer::sum);
+        return blk;
+    }
+
+    /**
+     * Append the first block of the specified file if the file
+     * is empty. Unlike {@link #append(String)}, the check and the
+     * append are made under an XLock on the file's end-of-file
+     * marker, held until the transaction completes, so transactions
+     * creating the same file at once append only one block between
+     * them. Ordinary appends never take that lock.
+     * 
+     * @param filename the name of the file
+     * @return true if this transaction appended the block
+     */
+    public boolean appendIfEmpty(String filename) {
+        if (fm.length(filename) != 0)
+            return false; // files never shrink
+        checkWritable();
+        concurMgr.xLock(new BlockId(filename, END_OF_FILE));
+        if (fm.length(filename) != 0)
+            return false;
+        append(filename);
+        return true;
+    }
+
+    /**
+     * Perform a single read for a read-only transaction,
+     * holding a lock on the block only while the read runs.
+     */
+    private <T> T readOnce(BlockId blk, Function<Page, T> reader) {
+        Buffer buff = mybuffers.getBuffer(blk);
+        concurMgr.beginRead(blk);
+        try {
+            return buff.read(reader);
+        } finally {
+            concurMgr.endRead(blk);
+        }
+    }
+
+    /**
+     * Perform a read for an optimistic transaction.
+     * A block the transaction has written is read from its private copy.
+     * Otherwise the read is done as in {@link #readOnce(BlockId, Function)},
+     * and the block's version is added to the read set on its first read.
+     */
+    private <T> T optimisticRead(BlockId blk, Function<Page, T> reader) {
+        Page own = privatePages.get(blk);
+        if (own != null)
+            return reader.apply(own);
+        return readOnce(blk, p -> {
+            readSet.putIfAbsent(blk, concurMgr.version(blk));
+            return reader.apply(p);
+        });
+    }
+
+    /**
+     * Return this optimistic transaction's private copy of a block,
+     * creating it (and an empty write batch) on the first write.
+     * The copy is read like any other block, so its version is
+     * added to the read set.
+     */
+    private Page privatePage(BlockId blk) {
+        Page own = privatePages.get(blk);
+        if (own == null) {
+            own = readOnce(blk, p -> {
+                readSet.putIfAbsent(blk, concurMgr.version(blk));
+                return new Page(p.getRegion(0, fm.blockSize()));
+            });
+            privatePages.put(blk, own);
+            writeSet.put(blk, pageWriter(blk));
+        }
+        return own;
+    }
+
+    /**
+     * The validation phase of an optimistic transaction.
+     * XLock the blocks it wrote and SLock the blocks it only read, so
+     * that their versions cannot change; abort if any version differs
+     * from the one the transaction read, or if another transaction
+     * appended to a file whose size it read; then install the
+     * buffered writes.
+     * 
+     * @throws ValidationAbortException if a block read has changed
+     */
+    private void validateAndInstall() {
+        finishing = true;
+        for (BlockId blk : writeSet.keySet())
+            concurMgr.xLock(blk);
+        for (BlockId blk : readSet.keySet())
+            concurMgr.sLock(blk);
+        for (Map.Entry<BlockId, Long> e : readSet.entrySet())
+            if (concurMgr.version(e.getKey()) != e.getValue())
+                throw new ValidationAbortException(e.getKey());
+        for (Map.Entry<String, Integer> e : sizeSet.entrySet())
+            if (fm.length(e.getKey()) - appended.getOrDefault(e.getKey(), 0) != e.getValue())
+                throw new ValidationAbortException(new BlockId(e.getKey(), END_OF_FILE));
+        for (PageWriter w : writeSet.values())
+            w.apply(true);
+    }
+
+    /**
+     * Return the block as this snapshot transaction sees it,
+     * resolving its version on the first read.
+     */
+    private Page snapshotPage(BlockId blk) {
+        Page p = snapshotPages.get(blk);
+        if (p == null) {
+            p = versions.read(blk, mybuffers.getBuffer(blk).contents(), snapshotTs);
+            snapshotPages.put(blk, p);
+        }
+        return p;
+    }
+
+    /**
+     * Save the before-image of a block this transaction
+     * is about to modify, if snapshots are enabled.
+     */
+    private void saveVersion(BlockId blk, Buffer buff) {
+        if (versions != null && !versioned.contains(blk)
+                && versions.saveBeforeImage(blk, buff.contents(), txId))
+            versioned.add(blk);
+    }
+
+    /**
+     * Publish or drop this transaction's before-images, or end
+     * its snapshot. Called once the transaction's writes are final
+     * and before its locks are released.
+     */
+    private void endVersions(boolean committed) {
+        if (versions == null)
+            return;
+        if (snapshotTs >= 0)
+            versions.endSnapshot(snapshotTs);
+        else if (committed)
+            versions.commit(txId, versioned);
+        else
+            versions.discard(txId, versioned);
+        versioned.clear();
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("transaction " + txId + " is read-only");
+    }
+
+    /**
+     * Return the ID of this transaction.
+     * 
+     * @return the transaction id
+     */
+    int txId() {
+        return txId;
     }
 
     public int blockSize() {
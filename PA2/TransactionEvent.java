@@ -0,0 +1,45 @@
+package simpledb.tx;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for the commit or rollback of a
+ * transaction, timing the work the call does, such as flushing
+ * the log and releasing the transaction's locks.
+ */
+@Name("simpledb.Transaction")
+@Label("Transaction End")
+@Category({ "SimpleDB", "Transaction" })
+@StackTrace(false)
+class TransactionEvent extends jdk.jfr.Event {
+    static final String COMMIT = "commit";
+    static final String ROLLBACK = "rollback";
+
+    @Label("Transaction")
+    int txId;
+
+    @Label("Outcome")
+    @Description("commit or rollback")
+    String outcome;
+
+    @Label("Commit LSN")
+    @Description("The LSN of the commit record, or -1 if none was written")
+    int lsn;
+
+    /**
+     * Commits the event with the specified values,
+     * if the recording wants it.
+     */
+    void emit(int txId, String outcome, int lsn) {
+        if (!shouldCommit())
+            return;
+        this.txId = txId;
+        this.outcome = outcome;
+        this.lsn = lsn;
+        commit();
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb.tx;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.buffer.BufferAbortException;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.LockAbortException;
+
+/**
+ * Runs units of work in transactions, retrying them when they abort.
+ * Key features:
+ * - Catches {@link LockAbortException}, {@link BufferAbortException} and
+ * {@link ValidationAbortException}, rolls the transaction back and runs
+ * the work again
+ * - Runs the work in either a locking or an optimistic transaction
+ * - Every retry reuses the ID of the first attempt, so under Wait-Die a
+ * retried transaction keeps its age and eventually becomes the oldest one,
+ * which is never aborted
+ * - Waits with randomized exponential backoff between attempts
+ * - Counts runs, retries and failures
+ */
+public class TransactionRunner {
+
+    /**
+     * A unit of work to run inside a transaction.
+     * The work may be run several times, so it should have no side
+     * effects outside the transaction.
+     */
+    public interface Work<T> {
+        T run(Transaction tx);
+    }
+
+    private static final long DEFAULT_BASE_BACKOFF = 1; // milliseconds
+    private static final long DEFAULT_MAX_BACKOFF = 100; // milliseconds
+
+    private FileMgr fm;
+    private LogMgr lm;
+    private BufferMgr bm;
+    private int maxAttempts;
+    private long baseBackoff;
+    private long maxBackoff;
+    private LongAdder runs = new LongAdder(); // units of work started
+    private LongAdder retries = new LongAdder(); // attempts after the first
+    private LongAdder failures = new LongAdder(); // units of work given up on
+
+    /**
+     * Creates a runner that retries until the work commits.
+     */
+    public TransactionRunner(FileMgr fm, LogMgr lm, BufferMgr bm) {
+        this(fm, lm, bm, Integer.MAX_VALUE, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * Creates a runner with a bounded number of attempts.
+     * 
+     * @param maxAttempts the number of attempts before giving up
+     * @param baseBackoff the backoff before the first retry, in milliseconds
+     * @param maxBackoff  the upper bound on any backoff, in milliseconds
+     */
+    public TransactionRunner(FileMgr fm, LogMgr lm, BufferMgr bm, int maxAttempts, long baseBackoff,
+            long maxBackoff) {
+        this.fm = fm;
+        this.lm = lm;
+        this.bm = bm;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Runs the work in a new transaction and commits it.
+     * If the transaction aborts, it is rolled back and the work is
+     * run again in a transaction with the same ID.
+     * Any other exception rolls the transaction back and is rethrown.
+     * An exception thrown by the rollback itself is attached to the
+     * rethrown one as suppressed, and the work is not run again.
+     * 
+     * @param work the unit of work
+     * @return the value returned by the committed attempt
+     * @throws LockAbortException   if the last allowed attempt was aborted
+     * @throws BufferAbortException if the last allowed attempt was aborted
+     */
+    public <T> T run(Work<T> work) {
+        return run(work, false);
+    }
+
+    /**
+     * Runs the work in a new optimistic transaction and commits it,
+     * retrying as {@link #run(Work)} does when validation fails.
+     * 
+     * @param work the unit of work
+     * @return the value returned by the committed attempt
+     * @see Transaction#beginOptimistic(FileMgr, LogMgr, BufferMgr)
+     */
+    public <T> T runOptimistic(Work<T> work) {
+        return run(work, true);
+    }
+
+    private <T> T run(Work<T> work, boolean optimistic) {
+        runs.increment();
+        Transaction tx = optimistic ? Transaction.beginOptimistic(fm, lm, bm) : new Transaction(fm, lm, bm);
+        int txId = tx.txId();
+        for (int attempt = 1;; attempt++) {
+            try {
+                T result = work.run(tx);
+                tx.commit();
+                return result;
+            } catch (LockAbortException | BufferAbortException | ValidationAbortException e) {
+                if (!rollback(tx, e) || attempt >= maxAttempts || !backoff(attempt)) {
+                    failures.increment();
+                    throw e;
+                }
+            } catch (RuntimeException | Error e) {
+                rollback(tx, e);
+                throw e;
+            }
+            retries.increment();
+            tx = optimistic ? Transaction.optimistic(fm, lm, bm, txId) : new Transaction(fm, lm, bm, txId);
+        }
+    }
+
+    /**
+     * Returns the number of units of work started by this runner.
+     */
+    public long runs() {
+        return runs.sum();
+    }
+
+    /**
+     * Returns the number of retried attempts over all units of work.
+     */
+    public long retries() {
+        return retries.sum();
+    }
+
+    /**
+     * Returns the number of units of work that ran out of attempts.
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Rolls the transaction back after the work failed. If the rollback
+     * fails as well, its exception is attached to the original failure,
+     * which the caller rethrows.
+     * 
+     * @param tx      the transaction of the failed attempt
+     * @param failure the exception that ended the attempt
+     * @return false if the rollback failed
+     */
+    private boolean rollback(Transaction tx, Throwable failure) {
+        try {
+            tx.rollback();
+            return true;
+        } catch (RuntimeException | Error e) {
+            failure.addSuppressed(e);
+            return false;
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt. The delay is chosen uniformly
+     * below an exponentially growing cap.
+     * 
+     * @param attempt the number of the attempt that just failed
+     * @return false if the thread was interrupted while sleeping
+     */
+    private boolean backoff(int attempt) {
+        long cap = Math.min(maxBackoff, baseBackoff << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.buffer.BufferAbortException;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.LockAbortException;
+import simpledb.tx.concurrency.LockAbortException.Reason;
+
+/**
+ * Checks the transaction runner.
+ * Aborted attempts must be rolled back and retried under the ID of
+ * the first attempt, until the work commits or the attempts run out.
+ * Any other failure must be rolled back and rethrown. When the
+ * rollback fails too, the original failure must still reach the
+ * caller, with the rollback's exception attached as suppressed.
+ *
+ * Usage: java simpledb.tx.TransactionRunnerTest
+ */
+public class TransactionRunnerTest {
+    private static final int BUFFERS = 2;
+
+    public static void main(String[] args) {
+        FileMgr fm = new FileMgr(new File("transactionrunnertest" + System.nanoTime()), 400);
+        LogMgr lm = new LogMgr(fm, "log");
+        BufferMgr bm = new BufferMgr(fm, lm, BUFFERS);
+        Transaction tx = new Transaction(fm, lm, bm);
+        for (int i = 0; i <= BUFFERS; i++)
+            tx.append("data");
+        tx.commit();
+        BlockId blk = new BlockId("data", 0);
+
+        TransactionRunner runner = new TransactionRunner(fm, lm, bm);
+        List<Integer> ids = new ArrayList<>();
+        int result = runner.run(t -> {
+            ids.add(t.txId());
+            t.pin(blk);
+            t.setInt(blk, 0, t.getInt(blk, 0) + 1, true);
+            if (ids.size() < 3)
+                throw new LockAbortException(Reason.YOUNGER_THAN_X_HOLDER, 0);
+            return t.getInt(blk, 0);
+        });
+        check(result == 1, "an aborted attempt was not rolled back");
+        check(ids.size() == 3 && ids.stream().distinct().count() == 1, "attempts ran under the IDs " + ids);
+        check(runner.retries() == 2 && runner.failures() == 0, "retries or failures miscounted");
+
+        TransactionRunner bounded = new TransactionRunner(fm, lm, bm, 2, 0, 0);
+        check(thrown(() -> bounded.run(t -> {
+            throw new LockAbortException(Reason.YOUNGER_THAN_X_HOLDER, 0);
+        })) instanceof LockAbortException, "the last abort was not rethrown");
+        check(bounded.failures() == 1, "the failure was not counted");
+
+        RuntimeException boom = new IllegalStateException("boom");
+        check(thrown(() -> runner.run(t -> {
+            t.pin(blk);
+            t.setInt(blk, 0, -1, true);
+            throw boom;
+        })) == boom, "a failure of the work was not rethrown");
+        check(value(fm, lm, bm, blk) == 1, "a failed attempt was not rolled back");
+
+        // the undo needs a buffer for blk, but the attempt holds them all
+        Throwable failure = thrown(() -> runner.run(t -> {
+            t.pin(blk);
+            t.setInt(blk, 0, -1, true);
+            t.unpin(blk);
+            for (int i = 1; i <= BUFFERS; i++)
+                t.pin(new BlockId("data", i));
+            throw boom;
+        }));
+        check(failure == boom, "a failing rollback replaced the failure of the work");
+        check(boom.getSuppressed().length == 1 && boom.getSuppressed()[0] instanceof BufferAbortException,
+                "the rollback's exception was not attached");
+        System.out.println("TransactionRunnerTest passed");
+    }
+
+    private static int value(FileMgr fm, LogMgr lm, BufferMgr bm, BlockId blk) {
+        Transaction tx = new Transaction(fm, lm, bm);
+        tx.pin(blk);
+        int result = tx.getInt(blk, 0);
+        tx.commit();
+        return result;
+    }
+
+    /**
+     * Returns what the action throws, or null if it returns.
+     */
+    private static Throwable thrown(Runnable action) {
+        try {
+            action.run();
+            return null;
+        } catch (RuntimeException | Error e) {
+            return e;
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok)
+            throw new AssertionError(msg);
+    }
+}
@@ -0,0 +1,33 @@
+package simpledb.tx;
+
+import simpledb.file.BlockId;
+
+/**
+ * A runtime exception indicating that an optimistic transaction
+ * needs to abort because a block it read was changed, or a file
+ * whose size it read was extended, by another transaction before
+ * it committed.
+ */
+@SuppressWarnings("serial")
+public class ValidationAbortException extends RuntimeException {
+    private BlockId blk;
+
+    /**
+     * Creates an exception for a failed validation.
+     * 
+     * @param blk the block whose version changed, or block -1
+     *            of a file that was extended
+     */
+    public ValidationAbortException(BlockId blk) {
+        super("validation failed on " + blk);
+        this.blk = blk;
+    }
+
+    /**
+     * Returns the block whose version changed, or block -1
+     * of a file that was extended.
+     */
+    public BlockId block() {
+        return blk;
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb.tx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+
+/**
+ * Keeps old versions of blocks for snapshot transactions.
+ * Key features:
+ * - A writer saves the before-image of a block the first time it
+ * modifies it; until the writer finishes, readers see that image
+ * instead of the block's uncommitted contents
+ * - A commit is stamped with the next value of a global clock, and
+ * its before-images become versions that are valid before that stamp
+ * - A snapshot starts at the current clock value and sees each block as
+ * of that time: the current contents, with every later version undone
+ * - Versions are kept only while an active snapshot can still need them
+ * All operations on one block run atomically inside the block's map
+ * entry, so readers never see a block while a writer is changing it.
+ */
+class VersionStore {
+    private final Map<BlockId, Versions> chains = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>(); // start time -> count, guarded by this
+    private final int blocksize;
+    private long clock = 0; // guarded by this
+    private volatile long oldestSnapshot = Long.MAX_VALUE;
+
+    VersionStore(int blocksize) {
+        this.blocksize = blocksize;
+    }
+
+    /**
+     * Starts a snapshot at the current time.
+     *
+     * @return the snapshot's start time
+     */
+    synchronized long beginSnapshot() {
+        snapshots.merge(clock, 1, Integer::sum);
+        oldestSnapshot = snapshots.firstKey();
+        return clock;
+    }
+
+    /**
+     * Ends a snapshot and discards the versions that
+     * no remaining snapshot can read.
+     *
+     * @param start the snapshot's start time
+     */
+    void endSnapshot(long start) {
+        synchronized (this) {
+            if (snapshots.merge(start, -1, Integer::sum) == 0)
+                snapshots.remove(start);
+            long oldest = snapshots.isEmpty() ? Long.MAX_VALUE : snapshots.firstKey();
+            if (oldest == oldestSnapshot)
+                return;
+            oldestSnapshot = oldest;
+        }
+        for (BlockId blk : chains.keySet())
+            chains.computeIfPresent(blk, (b, v) -> v.prune(oldestSnapshot));
+    }
+
+    /**
+     * Saves the current contents of a block that the transaction is
+     * about to modify, unless the transaction has already done so.
+     * The caller must hold an XLock on the block.
+     *
+     * @param blk  the block
+     * @param p    the block's page
+     * @param txId the modifying transaction
+     * @return true if the image was saved by this call
+     */
+    boolean saveBeforeImage(BlockId blk, Page p, int txId) {
+        boolean[] saved = new boolean[1];
+        chains.compute(blk, (b, v) -> {
+            if (v == null)
+                v = new Versions();
+            if (v.pendingTx != txId) {
+                v.pendingTx = txId;
+                v.pending = p.getRegion(0, blocksize);
+                saved[0] = true;
+            }
+            return v;
+        });
+        return saved[0];
+    }
+
+    /**
+     * Makes the transaction's saved before-images into versions
+     * stamped with a new commit time.
+     * Called after the transaction's writes are complete and
+     * before it releases its locks.
+     *
+     * @param txId   the committing transaction
+     * @param blocks the blocks for which it saved before-images
+     */
+    synchronized void commit(int txId, Collection<BlockId> blocks) {
+        if (blocks.isEmpty())
+            return;
+        long ts = ++clock;
+        boolean keep = !snapshots.isEmpty();
+        for (BlockId blk : blocks)
+            chains.computeIfPresent(blk, (b, v) -> {
+                if (v.pendingTx == txId) {
+                    if (keep)
+                        v.versions.add(new Version(ts, v.pending));
+                    v.pendingTx = 0;
+                    v.pending = null;
+                }
+                return v.prune(oldestSnapshot);
+            });
+    }
+
+    /**
+     * Drops the transaction's saved before-images.
+     * Called after the transaction's rollback has restored its blocks.
+     *
+     * @param txId   the rolled-back transaction
+     * @param blocks the blocks for which it saved before-images
+     */
+    void discard(int txId, Collection<BlockId> blocks) {
+        for (BlockId blk : blocks)
+            chains.computeIfPresent(blk, (b, v) -> {
+                if (v.pendingTx == txId) {
+                    v.pendingTx = 0;
+                    v.pending = null;
+                }
+                return v.prune(oldestSnapshot);
+            });
+    }
+
+    /**
+     * Returns a private copy of the block as a snapshot sees it.
+     *
+     * @param blk   the block
+     * @param p     the block's page, which must be pinned
+     * @param start the snapshot's start time
+     * @return the contents of the block at that time
+     */
+    Page read(BlockId blk, Page p, long start) {
+        byte[][] image = new byte[1][];
+        chains.compute(blk, (b, v) -> {
+            image[0] = (v == null) ? p.getRegion(0, blocksize) : v.asOf(p, start, blocksize);
+            return v;
+        });
+        return new Page(image[0]);
+    }
+
+    /**
+     * Returns the number of blocks that have a saved before-image
+     * or old versions. Once no transaction is writing and no
+     * snapshot is active, it is zero.
+     *
+     * @return the number of blocks with versions
+     */
+    int versionedBlocks() {
+        return chains.size();
+    }
+
+    /**
+     * The versions of one block.
+     */
+    private static class Versions {
+        int pendingTx = 0; // the writer of the block, or 0
+        byte[] pending = null; // the block before that writer's changes
+        List<Version> versions = new ArrayList<>(); // oldest commit first
+
+        byte[] asOf(Page p, long start, int blocksize) {
+            byte[] image = pending;
+            for (int i = versions.size() - 1; i >= 0 && versions.get(i).commitTs > start; i--)
+                image = versions.get(i).image;
+            return (image != null) ? image : p.getRegion(0, blocksize);
+        }
+
+        /**
+         * Removes the versions that no snapshot started at or after
+         * the given time can read, and returns null if nothing is left.
+         */
+        Versions prune(long oldest) {
+            versions.removeIf(ver -> ver.commitTs <= oldest);
+            return (pending == null && versions.isEmpty()) ? null : this;
+        }
+    }
+
+    private static class Version {
+        final long commitTs;
+        final byte[] image; // the block before the commit
+
+        Version(long commitTs, byte[] image) {
+            this.commitTs = commitTs;
+            this.image = image;
+        }
+    }
+}